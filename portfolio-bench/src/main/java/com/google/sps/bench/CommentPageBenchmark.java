@@ -0,0 +1,143 @@
+package com.google.sps.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.CapturingWriter;
+import com.google.sps.data.CommentBodies;
+import com.google.sps.data.CommentPageWriter;
+import com.google.sps.data.VoteCounter.Tally;
+import com.google.sps.data.VoteStore;
+import com.google.sps.servlets.comments.VoteKind;
+
+/**
+ * Measures serializing a page of comments to JSON, as {@code CommentServlet.doGet} does. Bodies
+ * are stored as they are in production, so long ones are decompressed as the page is written.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommentPageBenchmark {
+  /** The limit on cached pages in {@code CommentServlet}. */
+  private static final int MAX_CACHED_PAGE_CHARS = 256 * 1024;
+
+  @Param({"100", "5000"})
+  public int commentSize;
+
+  @Param({"10", "50"})
+  public int pageSize;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+  private final CountingWriter sink = new CountingWriter();
+  private List<Entity> comments;
+  private Map<Long, Tally> tallies;
+  private Map<Long, VoteKind> myVotes;
+
+  /** Throws the page away, so that only serialization is measured. */
+  private static class CountingWriter extends Writer {
+    long count;
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      count += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+      count += len;
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+
+  @Setup
+  public void setUp() {
+    // keys need an App Engine environment
+    helper.setUp();
+
+    comments = new ArrayList<>(pageSize);
+    tallies = new HashMap<>();
+    myVotes = new HashMap<>();
+
+    for (int i = 1; i <= pageSize; i++) {
+      Entity comment = new Entity(VoteStore.commentKey(i));
+      comment.setProperty("timestamp", new Date());
+      comment.setProperty("name", "Commenter " + i);
+      CommentBodies.set(comment, "content", SampleText.prose(commentSize, i));
+      comment.setProperty("shameful", false);
+
+      // a third of comments are translated, and the user has voted on a quarter
+      if (i % 3 == 0) {
+        comment.setProperty("contentLang", "fr");
+        CommentBodies.set(comment, "contentTranslated", SampleText.prose(commentSize, -i));
+      }
+      if (i % 4 == 0) {
+        myVotes.put((long) i, VoteKind.UP);
+      }
+
+      comments.add(comment);
+      tallies.put((long) i, new Tally(i * 3, i));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public long anonymousPage() throws IOException {
+    return write(null);
+  }
+
+  @Benchmark
+  public long userPage() throws IOException {
+    return write(myVotes);
+  }
+
+  /** Writes through a {@link CapturingWriter}, like the servlet does on a cache miss. */
+  @Benchmark
+  public String capturedPage() throws IOException {
+    CapturingWriter capture = new CapturingWriter(sink, MAX_CACHED_PAGE_CHARS);
+    JsonWriter out = new JsonWriter(capture);
+    CommentPageWriter.write(out, comments, tallies, Collections.emptyMap(), "cursor");
+    out.flush();
+    return capture.getCaptured();
+  }
+
+  private long write(Map<Long, VoteKind> votes) throws IOException {
+    sink.count = 0;
+    JsonWriter out = new JsonWriter(sink);
+    CommentPageWriter.write(out, comments, tallies, votes, "cursor");
+    out.flush();
+    return sink.count;
+  }
+}
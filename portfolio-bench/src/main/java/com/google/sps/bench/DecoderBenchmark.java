@@ -0,0 +1,48 @@
+package com.google.sps.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.sps.text.BoundedUtf8Decoder;
+
+/**
+ * Measures reading a posted comment from its multipart stream, which replaced
+ * {@code readPartToString} in {@code CommentServlet}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecoderBenchmark {
+  /** The limit that {@code CommentServlet} applies to comment content. */
+  private static final int CONTENT_LIMIT = 50000;
+
+  @Param({"100", "5000", "50000"})
+  public int commentSize;
+
+  private byte[] bytes;
+
+  @Setup
+  public void setUp() {
+    bytes = SampleText.prose(commentSize, 1).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public String decode() throws IOException {
+    return BoundedUtf8Decoder.get().decode(new ByteArrayInputStream(bytes), CONTENT_LIMIT);
+  }
+}
@@ -0,0 +1,65 @@
+package com.google.sps.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.sps.text.HtmlDetector;
+
+/**
+ * Compares {@link HtmlDetector} with the regular expression that it replaced, on plain text, on
+ * HTML, and on unclosed tags that make the regular expression backtrack.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HtmlDetectorBenchmark {
+  private static final Pattern HTML_PATTERN =
+      Pattern.compile("<\\w+(\\s*\\w+\\s*(=\\s*['\"].*['\"]))*>.*<\\/\\w+>", Pattern.DOTALL);
+
+  /** Kept small, because the regular expression takes superlinear time on adversarial input. */
+  @Param({"100", "1000", "5000"})
+  public int commentSize;
+
+  @Param({"prose", "html", "adversarial"})
+  public String shape;
+
+  private String text;
+
+  @Setup
+  public void setUp() {
+    switch (shape) {
+      case "html":
+        text = SampleText.html(commentSize, 1);
+        break;
+      case "adversarial":
+        text = SampleText.adversarial(commentSize);
+        break;
+      default:
+        text = SampleText.prose(commentSize, 1);
+        break;
+    }
+  }
+
+  @Benchmark
+  public boolean detector() {
+    return HtmlDetector.matches(text);
+  }
+
+  @Benchmark
+  public boolean regex() {
+    return HTML_PATTERN.matcher(text).matches();
+  }
+}
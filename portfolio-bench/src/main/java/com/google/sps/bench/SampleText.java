@@ -0,0 +1,55 @@
+package com.google.sps.bench;
+
+import java.util.Random;
+
+/** Generates repeatable text for the benchmarks to work on. */
+final class SampleText {
+  private static final String[] WORDS = {
+    "the", "comment", "was", "really", "great", "and", "I", "liked", "it", "a", "lot", "très",
+    "bien", "número", "über", "こんにちは", "世界", "😀", "portfolio", "website",
+  };
+
+  private SampleText() {}
+
+  /**
+   * Returns prose of roughly the given length, mixing ASCII words with words that take two,
+   * three and four bytes per character in UTF-8.
+   */
+  static String prose(int length, long seed) {
+    Random random = new Random(seed);
+    StringBuilder text = new StringBuilder(length + 16);
+
+    while (text.length() < length) {
+      if (text.length() > 0) {
+        text.append(' ');
+      }
+      text.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+
+    text.setLength(length);
+
+    // do not end with half of a surrogate pair
+    if (Character.isHighSurrogate(text.charAt(length - 1))) {
+      text.setCharAt(length - 1, '.');
+    }
+
+    return text.toString();
+  }
+
+  /** Returns an HTML element of roughly the given length, which the detector should flag. */
+  static String html(int length, long seed) {
+    return "<p class=\"comment\">" + prose(Math.max(1, length - 30), seed) + "</p>";
+  }
+
+  /**
+   * Returns text of roughly the given length that looks like the start of an HTML tag with many
+   * attributes but never closes, which is the worst case for the old regular expression.
+   */
+  static String adversarial(int length) {
+    StringBuilder text = new StringBuilder(length + 16).append("<a");
+    while (text.length() < length) {
+      text.append(" b='' ");
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,113 @@
+package com.google.sps.bench;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.CommentRanking;
+import com.google.sps.data.VoteCounter;
+import com.google.sps.data.VoteCounter.Tally;
+import com.google.sps.data.VoteStore;
+import com.google.sps.servlets.comments.VoteKind;
+
+/**
+ * Measures casting votes and reading vote counts against the local Datastore stub. The stub has
+ * none of the production Datastore's latency, so these numbers show the cost of the code around
+ * the Datastore calls and the number of entities they touch, not real request times.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VoteBenchmark {
+  @Param({"10", "50"})
+  public int pageSize;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setNoStorage(true));
+  private DatastoreService datastore;
+  private VoteCounter counter;
+  private VoteStore voteStore;
+  private List<Entity> comments;
+  private List<Long> commentIds;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    counter = new VoteCounter(datastore);
+    voteStore = new VoteStore(datastore, counter);
+
+    comments = new ArrayList<>(pageSize);
+    commentIds = new ArrayList<>(pageSize);
+
+    for (int i = 0; i < pageSize; i++) {
+      Entity comment = new Entity("Comment");
+      comment.setProperty("timestamp", new Date());
+      comment.setProperty("name", "Commenter " + i);
+      comment.setUnindexedProperty("content", new Text(SampleText.prose(100, i)));
+      comment.setProperty("shameful", false);
+      CommentRanking.initialize(comment);
+      datastore.put(comment);
+
+      comments.add(comment);
+      commentIds.add(comment.getKey().getId());
+    }
+
+    // give every comment some votes to read back
+    for (int i = 0; i < pageSize; i++) {
+      voteStore.cast(commentIds.get(i), "user" + i, i % 2 == 0 ? VoteKind.UP : VoteKind.DOWN);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /**
+   * Flips one user's vote on each comment in turn, so that every call records a change and
+   * updates two counter shards.
+   */
+  @Benchmark
+  public VoteStore.Result castVote() {
+    int i = next++;
+    long commentId = commentIds.get(i % pageSize);
+    VoteKind kind = (i / pageSize) % 2 == 0 ? VoteKind.UP : VoteKind.DOWN;
+    return voteStore.cast(commentId, "bench", kind);
+  }
+
+  /** Reads the tallies of a page of comments, as {@code CommentServlet.doGet} does. */
+  @Benchmark
+  public Map<Long, Tally> readTallies() {
+    return counter.getTallies(comments);
+  }
+
+  /** Reads a user's votes on a page of comments, as {@code CommentServlet.doGet} does. */
+  @Benchmark
+  public Map<Long, VoteKind> readMyVotes() {
+    return voteStore.getVotes("user0", commentIds);
+  }
+}
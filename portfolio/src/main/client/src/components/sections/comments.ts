@@ -7,6 +7,14 @@ import languages from '@res/misc/languages.json';
 
 type Cursor = string;
 
+/**
+ * Whether to subscribe to live vote counts from `/api/vote/stream`. Off while
+ * the app is deployed to the java8 runtime with `threadsafe` disabled, which
+ * buffers streamed responses until they end and gives each open stream an
+ * instance of its own.
+ */
+const LIVE_VOTES = false;
+
 /**
  * Information about a comment returned by the server.
  */
@@ -17,6 +25,11 @@ export interface CommentData {
   content: string;
   upvotes: number;
   downvotes: number;
+  /**
+   * The vote that the logged-in user cast on this comment. Only present if the
+   * user is logged in and has voted.
+   */
+  myVote?: VoteKind;
   /**
    * A comment is shameful if it appears to contain HTML.
    * Shame on you, for trying to do XSS on my website!
@@ -37,11 +50,36 @@ export interface TranslatedCommentData extends CommentData {
   contentTranslated: string;
 }
 
+/**
+ * A summary of a comment returned by the server, which has the start of its
+ * content instead of all of it. The full comment can be fetched with
+ * @see {fetchComment}.
+ */
+export interface CommentSummaryData {
+  id: number;
+  name: string;
+  /** The start of the comment's content. */
+  preview: string;
+  /** The length of the comment's full content. */
+  contentLength: number;
+  /** Whether the preview is shorter than the full content. */
+  truncated: boolean;
+  /**
+   * The language the comment was originally written in, if it has been
+   * translated to English.
+   */
+  contentLang?: string;
+  upvotes: number;
+  downvotes: number;
+  myVote?: VoteKind;
+  shameful: boolean;
+}
+
 /**
  * A page of comments returned by the server.
  */
 interface CommentPageData {
-  comments: Array<CommentData | TranslatedCommentData>;
+  comments: CommentSummaryData[];
 
   /**
    * Can be used to fetch the next batch of comments from the server.
@@ -58,6 +96,12 @@ interface CommentPage extends CommentPageData {
 
 let currentPage: CommentPage | null = null;
 
+/**
+ * Callbacks that update the score shown for each rendered comment, keyed by
+ * comment ID.
+ */
+const scoreUpdaters = new Map<number, (tally: VoteTally) => void>();
+
 /**
  * Loads comments from server and adds them to the component.
  *
@@ -80,6 +124,7 @@ function updateComments(
     return;
   }
 
+  scoreUpdaters.clear();
   const comments = page.comments.map(Comment);
 
   const listEl = container.getElementsByTagName('ul')[0];
@@ -103,11 +148,28 @@ async function fetchPage(
   limit: number):
   Promise<CommentPageData> {
   const response = cursor ?
-    await fetch(`/api/comments?limit=${limit}&cursor=${cursor}`) :
-    await fetch(`/api/comments?limit=${limit}`);
+    await fetch(`/api/comments?summary=1&limit=${limit}&cursor=${cursor}`) :
+    await fetch(`/api/comments?summary=1&limit=${limit}`);
   return await response.json() as Promise<CommentPageData>;
 }
 
+/**
+ * Fetches a comment with its full content and translation.
+ *
+ * @param commentId The ID of the comment to fetch.
+ */
+async function fetchComment(
+  commentId: number):
+  Promise<CommentData | TranslatedCommentData> {
+  const response = await fetch(`/api/comments/${commentId}`);
+
+  if (response.status !== 200) {
+    throw new Error('fetching comment failed');
+  }
+
+  return await response.json() as CommentData | TranslatedCommentData;
+}
+
 /**
  * Fetches the current page of comments.
  *
@@ -213,6 +275,7 @@ async function submitForm(
 
 type VoteKind = 'up' | 'down';
 type VoteTally = {upvotes: number, downvotes: number};
+type VoteEvent = VoteTally & {id: number};
 
 /**
  * Submits a vote for a comment.
@@ -254,7 +317,7 @@ async function fetchCommentScore(commentId: number) {
   return await res.json() as VoteTally;
 }
 
-const Comment = (comment: CommentData | TranslatedCommentData): HTMLElement => {
+const Comment = (comment: CommentSummaryData): HTMLElement => {
   const nameSpan: HTMLElement =
     htmlElement`<span class="comment-name"></span>`;
   nameSpan.innerText = comment.name;
@@ -285,6 +348,14 @@ const Comment = (comment: CommentData | TranslatedCommentData): HTMLElement => {
   };
 
   updateScore(comment);
+  scoreUpdaters.set(comment.id, updateScore);
+
+  const updateMyVote = (kind: VoteKind | undefined) => {
+    upvoteBtn.classList.toggle('voted', kind === 'up');
+    downvoteBtn.classList.toggle('voted', kind === 'down');
+  };
+
+  updateMyVote(comment.myVote);
 
   if (comment.shameful) {
     upvoteBtn.disabled = true;
@@ -292,22 +363,40 @@ const Comment = (comment: CommentData | TranslatedCommentData): HTMLElement => {
   } else {
     upvoteBtn.addEventListener('click', async () => {
       await submitVote(comment.id, 'up');
+      updateMyVote('up');
       updateScore(await fetchCommentScore(comment.id));
     });
     downvoteBtn.addEventListener('click', async () => {
       await submitVote(comment.id, 'down');
+      updateMyVote('down');
       updateScore(await fetchCommentScore(comment.id));
     });
   }
 
-  const readmore = ReadMore(new Text(comment.content));
+  const readmore = ReadMore(new Text(comment.preview));
+
+  // pages only have a preview, so the full comment is fetched when it is needed
+  let full: Promise<CommentData | TranslatedCommentData> | null = null;
+  const fetchFull = () => full = full || fetchComment(comment.id);
+
+  // whether the English translation is shown instead of the original text
+  let translated = false;
+  // whether the full content is shown instead of the preview
+  let loaded = !comment.truncated;
+
+  const showFull = (data: CommentData | TranslatedCommentData) => {
+    readmore.root.innerText = translated && 'contentTranslated' in data ?
+        data.contentTranslated :
+        data.content;
+    loaded = true;
+  };
 
   const controlsDiv = htmlElement`
     <div class="comment-controls">
       ${readmore.root}
     </div>`;
 
-  if ('contentLang' in comment && comment.contentLang in languages) {
+  if (comment.contentLang && comment.contentLang in languages) {
     const langInfo = languages[comment.contentLang as keyof typeof languages];
     const translatePrompt =
       `translate from ${langInfo.native} (${langInfo.name})`;
@@ -316,17 +405,18 @@ const Comment = (comment: CommentData | TranslatedCommentData): HTMLElement => {
         ${translatePrompt}
       </button>`;
 
-    let translated = false;
+    translateBtn.addEventListener('click', async () => {
+      const data = await fetchFull();
+      // without a translation, there is nothing to switch to
+      translated = !translated && 'contentTranslated' in data;
 
-    translateBtn.addEventListener('click', () => {
-      translated = !translated;
+      showFull(data);
+      translateBtn.innerText =
+        translated ? 'see original text' : translatePrompt;
 
-      if (translated) {
-        readmore.root.innerText = comment.contentTranslated;
-        translateBtn.innerText = 'see original text';
-      } else {
-        readmore.root.innerText = comment.content;
-        translateBtn.innerText = translatePrompt;
+      if (!readmore.getIsCollapsed()) {
+        // grow to fit the new text
+        readmore.expand();
       }
     });
 
@@ -338,7 +428,11 @@ const Comment = (comment: CommentData | TranslatedCommentData): HTMLElement => {
       see more
     </button>`;
 
-  expandBtn.addEventListener('click', () => {
+  expandBtn.addEventListener('click', async () => {
+    if (!loaded) {
+      showFull(await fetchFull());
+    }
+
     if (readmore.getIsCollapsed()) {
       readmore.expand();
       expandBtn.innerText = 'see less';
@@ -353,7 +447,7 @@ const Comment = (comment: CommentData | TranslatedCommentData): HTMLElement => {
   // hack because there are no real 'components' here which means
   // there is no way to know when the component is added to the DOM
   setTimeout(() => {
-    if (!readmore.getIsOverflowed()) {
+    if (!comment.truncated && !readmore.getIsOverflowed()) {
       expandBtn.style.visibility = 'hidden';
       readmore.expand();
     }
@@ -469,5 +563,14 @@ export const CommentSection = (): HTMLElement => {
     updateComments(container, currentPage, limit);
   })();
 
+  if (LIVE_VOTES) {
+    // the browser reconnects by itself if the stream drops
+    const voteStream = new EventSource('/api/vote/stream');
+    voteStream.addEventListener('message', (ev) => {
+      const data = JSON.parse((ev as MessageEvent).data) as VoteEvent;
+      scoreUpdaters.get(data.id)?.(data);
+    });
+  }
+
   return container;
 };
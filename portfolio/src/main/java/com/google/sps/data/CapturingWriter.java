@@ -0,0 +1,71 @@
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer that passes everything through to another writer and also keeps a copy of it, as long as
+ * the copy stays under a size limit. Used to cache a response while it is being streamed.
+ */
+public class CapturingWriter extends Writer {
+  private final Writer inner;
+  private final int limit;
+  private StringBuilder captured = new StringBuilder();
+
+  /**
+   * @param inner The writer to pass writes through to.
+   * @param limit The maximum number of characters to capture. If more than this is written, the
+   *     copy is discarded.
+   */
+  public CapturingWriter(Writer inner, int limit) {
+    this.inner = inner;
+    this.limit = limit;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    inner.write(cbuf, off, len);
+    if (capture(len)) {
+      captured.append(cbuf, off, len);
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    inner.write(str, off, len);
+    if (capture(len)) {
+      captured.append(str, off, off + len);
+    }
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    inner.write(c);
+    if (capture(1)) {
+      captured.append((char) c);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    inner.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    inner.close();
+  }
+
+  /** Returns everything written so far, or null if it was more than the limit. */
+  public String getCaptured() {
+    return captured == null ? null : captured.toString();
+  }
+
+  /** Returns whether {@code len} more characters should be captured. */
+  private boolean capture(int len) {
+    if (captured != null && captured.length() + len > limit) {
+      captured = null;
+    }
+    return captured != null;
+  }
+}
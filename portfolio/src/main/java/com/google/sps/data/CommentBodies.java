@@ -0,0 +1,129 @@
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * Reads and writes the bodies of comments, {@code content} and {@code contentTranslated}. Short
+ * bodies are stored as {@link Text}. Longer ones are stored as a {@link Blob} holding a format
+ * byte followed by the body's UTF-8 bytes compressed with deflate, which makes comment entities
+ * smaller to store, read and write. Either kind is read back as a string.
+ *
+ * Compressors hold native buffers, so each thread keeps one of each and reuses it.
+ */
+public class CommentBodies {
+  /** Bodies shorter than this many UTF-8 bytes are not worth compressing. */
+  public static final int COMPRESSION_THRESHOLD = 1024;
+
+  /** The format byte of a body compressed with raw deflate, without a zlib header. */
+  private static final byte FORMAT_DEFLATE = 1;
+
+  private static final ThreadLocal<Deflater> deflaters =
+      ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+  private static final ThreadLocal<Inflater> inflaters =
+      ThreadLocal.withInitial(() -> new Inflater(true));
+
+  private CommentBodies() {}
+
+  /** Stores a body in an unindexed property, compressing it if it is long enough. */
+  public static void set(Entity comment, String property, String body) {
+    byte[] utf8 = body.getBytes(StandardCharsets.UTF_8);
+
+    if (utf8.length >= COMPRESSION_THRESHOLD) {
+      byte[] compressed = compress(utf8);
+
+      // text that is already dense, like base64, can come out larger
+      if (compressed.length < utf8.length) {
+        comment.setUnindexedProperty(property, new Blob(compressed));
+        return;
+      }
+    }
+
+    comment.setUnindexedProperty(property, new Text(body));
+  }
+
+  /**
+   * Reads a body, decompressing it if necessary.
+   *
+   * @return The body, or null if the comment does not have the property.
+   */
+  public static String get(Entity comment, String property) {
+    Object value = comment.getProperty(property);
+
+    if (value == null) {
+      return null;
+    } else if (value instanceof Text) {
+      return ((Text) value).getValue();
+    } else if (value instanceof Blob) {
+      return decompress(((Blob) value).getBytes());
+    } else {
+      return (String) value;
+    }
+  }
+
+  /**
+   * Compresses a body that was stored as {@link Text} before bodies were compressed, if it is long
+   * enough.
+   *
+   * @return Whether the property was changed.
+   */
+  public static boolean migrate(Entity comment, String property) {
+    Object value = comment.getProperty(property);
+    if (!(value instanceof Text)) {
+      return false;
+    }
+
+    set(comment, property, ((Text) value).getValue());
+    return comment.getProperty(property) instanceof Blob;
+  }
+
+  private static byte[] compress(byte[] utf8) {
+    Deflater deflater = deflaters.get();
+    deflater.reset();
+    deflater.setInput(utf8);
+    deflater.finish();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 2 + 16);
+    out.write(FORMAT_DEFLATE);
+
+    byte[] buffer = new byte[4096];
+    while (!deflater.finished()) {
+      int length = deflater.deflate(buffer);
+      out.write(buffer, 0, length);
+    }
+    return out.toByteArray();
+  }
+
+  private static String decompress(byte[] stored) {
+    if (stored.length == 0 || stored[0] != FORMAT_DEFLATE) {
+      throw new IllegalStateException(
+          "unknown comment body format " + (stored.length == 0 ? "(empty)" : stored[0]));
+    }
+
+    Inflater inflater = inflaters.get();
+    inflater.reset();
+    inflater.setInput(stored, 1, stored.length - 1);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+    byte[] buffer = new byte[4096];
+    try {
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalStateException("comment body is truncated");
+        }
+        out.write(buffer, 0, length);
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("comment body is corrupt", e);
+    }
+
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,150 @@
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import com.google.sps.stats.Stats;
+
+/**
+ * Cache of serialized comment pages, keyed by ordering, cursor and page size.
+ *
+ * Each page is stored with the {@link Versions#getPageVersion page version} it was built at, and
+ * is only served while that is still the current version, so writes on any instance invalidate it.
+ * Pages also expire after a fixed time, in case a write happens while memcache is unavailable.
+ *
+ * A gzipped copy of each page is made the first time a client that accepts gzip asks for it, so a
+ * page is compressed at most once however many times it is served.
+ */
+public class CommentPageCache {
+  private static final CommentPageCache instance = new CommentPageCache(256, 5000);
+
+  static {
+    Stats.register("comment_page_cache_hits", instance::getHits);
+    Stats.register("comment_page_cache_misses", instance::getMisses);
+    Stats.register("comment_page_cache_size", instance::size);
+  }
+
+  private final long maxAgeMillis;
+  private final Map<String, Page> pages;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** A cached page. */
+  public static class Page {
+    final long version;
+    final long createdAt;
+    private final String json;
+    private volatile byte[] gzipped;
+
+    Page(long version, long createdAt, String json) {
+      this.version = version;
+      this.createdAt = createdAt;
+      this.json = json;
+    }
+
+    public String getJson() {
+      return json;
+    }
+
+    /** Returns the page encoded as UTF-8 and gzipped, compressing it if this is the first call. */
+    public byte[] getGzipped() {
+      // two threads may both compress the page the first time, but they produce the same bytes
+      byte[] result = gzipped;
+      if (result == null) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length() / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+          out.write(json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        result = gzipped = bytes.toByteArray();
+      }
+      return result;
+    }
+  }
+
+  /**
+   * @param capacity The maximum number of pages to keep.
+   * @param maxAgeMillis How long a page may be served for, even if its version is still current.
+   */
+  public CommentPageCache(int capacity, long maxAgeMillis) {
+    this.maxAgeMillis = maxAgeMillis;
+    this.pages = new LinkedHashMap<String, Page>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /** The cache shared by the comment servlets on this instance. */
+  public static CommentPageCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * @param sort The name of the page's ordering.
+   * @param cursor The cursor the page starts at, or null for the first page.
+   * @param limit The maximum number of comments in the page.
+   * @param version The current page version.
+   * @return The page, or null if it is not cached or is stale.
+   */
+  public Page get(String sort, String cursor, int limit, long version) {
+    String key = key(sort, cursor, limit);
+    Page page;
+
+    synchronized (pages) {
+      page = pages.get(key);
+
+      if (page != null && (page.version != version
+          || System.currentTimeMillis() - page.createdAt > maxAgeMillis)) {
+        pages.remove(key);
+        page = null;
+      }
+    }
+
+    if (page == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    hits.incrementAndGet();
+    return page;
+  }
+
+  /**
+   * Caches a serialized page.
+   *
+   * @param version The page version, read before the page was queried, so that a page which raced
+   *     with a write is stored under the older version.
+   */
+  public void put(String sort, String cursor, int limit, long version, String json) {
+    synchronized (pages) {
+      pages.put(key(sort, cursor, limit), new Page(version, System.currentTimeMillis(), json));
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public int size() {
+    synchronized (pages) {
+      return pages.size();
+    }
+  }
+
+  private static String key(String sort, String cursor, int limit) {
+    return sort + ":" + limit + ":" + (cursor == null ? "" : cursor);
+  }
+}
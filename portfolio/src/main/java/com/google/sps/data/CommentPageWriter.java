@@ -0,0 +1,187 @@
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.Map;
+import com.google.appengine.api.datastore.Entity;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.VoteCounter.Tally;
+import com.google.sps.servlets.comments.VoteKind;
+import com.google.sps.translation.Translator;
+
+/**
+ * Serializes pages of comments straight to a stream, one entity at a time, without building a JSON
+ * tree or an intermediate string.
+ */
+public class CommentPageWriter {
+  private CommentPageWriter() {}
+
+  /**
+   * Writes a page of comments.
+   *
+   * @param out The writer to write the page to.
+   * @param comments The comment entities in the page.
+   * @param tallies The tallies of the comments, keyed by comment ID.
+   * @param myVotes The votes that the current user cast on the comments, keyed by comment ID, or
+   *     null if no user is logged in.
+   * @param nextCursor The cursor of the next page.
+   */
+  public static void write(JsonWriter out, Iterable<Entity> comments, Map<Long, Tally> tallies,
+      Map<Long, VoteKind> myVotes, String nextCursor) throws IOException {
+    write(out, comments, tallies, myVotes, null, nextCursor);
+  }
+
+  /**
+   * Writes a page of comments, with translations into the viewer's language.
+   *
+   * @param localized The translations of the comments into the viewer's language, keyed by comment
+   *     ID. Comments which are missing, such as those already in that language, are written
+   *     without one. Null if no translations were asked for.
+   * @see #write(JsonWriter, Iterable, Map, Map, String)
+   */
+  public static void write(JsonWriter out, Iterable<Entity> comments, Map<Long, Tally> tallies,
+      Map<Long, VoteKind> myVotes, Map<Long, Translator.Result> localized, String nextCursor)
+      throws IOException {
+    out.beginObject();
+    out.name("comments").beginArray();
+
+    for (Entity ent : comments) {
+      long id = ent.getKey().getId();
+      writeComment(out, ent, tallies.get(id), myVotes == null ? null : myVotes.get(id),
+          localized == null ? null : localized.get(id));
+    }
+
+    out.endArray();
+    out.name("nextCommentCursor").value(nextCursor);
+    out.endObject();
+  }
+
+  /**
+   * Writes an array of comments, in the order they are given, for responses that are shaped
+   * differently from a page.
+   *
+   * @see #write
+   */
+  public static void writeComments(JsonWriter out, Iterable<Entity> comments,
+      Map<Long, Tally> tallies, Map<Long, VoteKind> myVotes) throws IOException {
+    out.beginArray();
+
+    for (Entity ent : comments) {
+      long id = ent.getKey().getId();
+      writeComment(out, ent, tallies.get(id), myVotes == null ? null : myVotes.get(id));
+    }
+
+    out.endArray();
+  }
+
+  /**
+   * Writes a page of comment summaries, which have a preview of the content in place of the full
+   * content and its translation. See {@link CommentSummary}.
+   *
+   * @param comments The comment entities in the page, which only need the properties projected by
+   *     {@link CommentSummary#project}.
+   * @see #write
+   */
+  public static void writeSummaries(JsonWriter out, Iterable<Entity> comments,
+      Map<Long, Tally> tallies, Map<Long, VoteKind> myVotes, String nextCursor) throws IOException {
+    out.beginObject();
+    out.name("comments").beginArray();
+
+    for (Entity ent : comments) {
+      long id = ent.getKey().getId();
+      writeSummary(out, ent, tallies.get(id), myVotes == null ? null : myVotes.get(id));
+    }
+
+    out.endArray();
+    out.name("nextCommentCursor").value(nextCursor);
+    out.endObject();
+  }
+
+  /**
+   * Writes one comment.
+   *
+   * @param tally The comment's tally.
+   * @param myVote The vote that the current user cast on the comment, or null if there is none.
+   */
+  public static void writeComment(JsonWriter out, Entity ent, Tally tally, VoteKind myVote)
+      throws IOException {
+    writeComment(out, ent, tally, myVote, null);
+  }
+
+  /**
+   * Writes one comment, with its translation into the viewer's language.
+   *
+   * @param localized The comment's translation, or null if there is none.
+   * @see #writeComment(JsonWriter, Entity, Tally, VoteKind)
+   */
+  public static void writeComment(JsonWriter out, Entity ent, Tally tally, VoteKind myVote,
+      Translator.Result localized) throws IOException {
+    out.beginObject();
+    out.name("id").value(ent.getKey().getId());
+    out.name("name").value((String) ent.getProperty("name"));
+    out.name("content").value(CommentBodies.get(ent, "content"));
+
+    if (ent.hasProperty("contentLang")) {
+      out.name("contentLang").value((String) ent.getProperty("contentLang"));
+      out.name("contentTranslated").value(CommentBodies.get(ent, "contentTranslated"));
+    }
+
+    if (localized != null) {
+      out.name("localized").beginObject();
+      out.name("sourceLang").value(localized.sourceLanguage);
+      out.name("content").value(localized.translatedText);
+      out.endObject();
+    }
+
+    out.name("shameful").value((boolean) ent.getProperty("shameful"));
+    out.name("upvotes").value(tally.upvotes);
+    out.name("downvotes").value(tally.downvotes);
+
+    if (myVote != null) {
+      out.name("myVote").value(myVote.name().toLowerCase());
+    }
+
+    out.endObject();
+  }
+
+  private static void writeSummary(JsonWriter out, Entity ent, Tally tally, VoteKind myVote)
+      throws IOException {
+    String preview;
+    long contentLength;
+    String translatedFrom;
+
+    if (ent.hasProperty("preview")) {
+      preview = (String) ent.getProperty("preview");
+      contentLength = (long) ent.getProperty("contentLength");
+      translatedFrom = (String) ent.getProperty("translatedFrom");
+    } else {
+      // a full comment which has not been backfilled yet; see CommentSummary.isBackfilled
+      String content = CommentBodies.get(ent, "content");
+      preview = CommentSummary.preview(content);
+      contentLength = content.length();
+      translatedFrom =
+          ent.hasProperty("contentLang") ? (String) ent.getProperty("contentLang") : "";
+    }
+
+    out.beginObject();
+    out.name("id").value(ent.getKey().getId());
+    out.name("name").value((String) ent.getProperty("name"));
+    out.name("preview").value(preview);
+    out.name("contentLength").value(contentLength);
+    out.name("truncated").value(preview.length() < contentLength);
+
+    if (!translatedFrom.isEmpty()) {
+      // the translation itself is only in the full comment
+      out.name("contentLang").value(translatedFrom);
+    }
+
+    out.name("shameful").value((boolean) ent.getProperty("shameful"));
+    out.name("upvotes").value(tally.upvotes);
+    out.name("downvotes").value(tally.downvotes);
+
+    if (myVote != null) {
+      out.name("myVote").value(myVote.name().toLowerCase());
+    }
+
+    out.endObject();
+  }
+}
@@ -0,0 +1,150 @@
+package com.google.sps.data;
+
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.logging.Logger;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.data.VoteCounter.Tally;
+
+/**
+ * Maintains the indexed {@code score} and {@code hotness} properties of comments, which the
+ * "top" and "hot" orderings sort by.
+ *
+ * <ul>
+ *   <li>{@code score} is the lower bound of the Wilson score interval for the fraction of
+ *       upvotes, so a comment with a few votes does not outrank one with many.
+ *   <li>{@code hotness} is the log of the net score plus the comment's age in units of 12.5 hours,
+ *       so newer comments need fewer votes to rank highly. It never has to be recomputed as time
+ *       passes, because every comment's hotness grows at the same rate.
+ * </ul>
+ *
+ * Updating the properties is a transaction on the comment's entity group, which votes on the same
+ * comment would contend for, so votes only {@link #schedule} an update. All the votes on a comment
+ * within the same window share one update, which runs at the end of the window.
+ */
+public class CommentRanking {
+  /** The z-score for a 95% confidence interval. */
+  private static final double Z = 1.96;
+
+  /** 10 times as many net votes are worth this many seconds of age. */
+  private static final double HOTNESS_SECONDS = 45000;
+
+  public static final String WORKER_URL = "/api/tasks/ranking";
+
+  /** Votes on a comment within the same window share one update. */
+  private static final long BATCH_WINDOW_MS = 2000;
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  private static final Logger logger = Logger.getLogger(CommentRanking.class.getName());
+
+  private final DatastoreService datastore;
+  private final Queue queue;
+
+  public CommentRanking(DatastoreService datastore) {
+    this(datastore, QueueFactory.getDefaultQueue());
+  }
+
+  CommentRanking(DatastoreService datastore, Queue queue) {
+    this.datastore = datastore;
+    this.queue = queue;
+  }
+
+  /** Sets the ranking properties of a comment that has no votes yet. */
+  public static void initialize(Entity comment) {
+    comment.setProperty("score", score(0, 0));
+    comment.setProperty("hotness", hotness(0, 0, (Date) comment.getProperty("timestamp")));
+  }
+
+  /** Makes sure a comment's ranking properties will be updated soon, after its votes changed. */
+  public void schedule(long commentId) {
+    long window = System.currentTimeMillis() / BATCH_WINDOW_MS;
+
+    try {
+      // named tasks are deduplicated by the task queue, so this only adds one task per window
+      queue.add(TaskOptions.Builder.withUrl(WORKER_URL)
+          .param("id", Long.toString(commentId))
+          .taskName("rank-" + commentId + "-" + window)
+          .countdownMillis(BATCH_WINDOW_MS));
+    } catch (TaskAlreadyExistsException e) {
+      // another vote in this window already scheduled the update
+    }
+  }
+
+  /**
+   * Updates a comment's ranking properties after its votes changed.
+   *
+   * Updates for the same comment can race, so each one carries the version returned by
+   * {@link Versions#commentChanged}, and an update is skipped if the comment was already ranked at
+   * a later version. Because the version is bumped after the vote is committed and the tally is
+   * read after that, the update with the highest version always saw every earlier vote.
+   *
+   * @param tally The comment's vote counts, read after {@code version} was obtained.
+   * @param version The comment's version, or null if it is not known.
+   * @return False if the comment's entity group was too contended to update it.
+   */
+  public boolean update(long commentId, Tally tally, Long version) {
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      Transaction txn = datastore.beginTransaction();
+
+      try {
+        Entity comment = datastore.get(txn, VoteStore.commentKey(commentId));
+
+        Long rankedVersion = (Long) comment.getProperty("rankVersion");
+        if (version != null && rankedVersion != null && rankedVersion >= version) {
+          return true;
+        }
+
+        comment.setProperty("score", score(tally.upvotes, tally.downvotes));
+        comment.setProperty("hotness",
+            hotness(tally.upvotes, tally.downvotes, (Date) comment.getProperty("timestamp")));
+        if (version != null) {
+          comment.setUnindexedProperty("rankVersion", version);
+        }
+
+        datastore.put(txn, comment);
+        txn.commit();
+        return true;
+      } catch (EntityNotFoundException e) {
+        // the comment was deleted
+        return true;
+      } catch (ConcurrentModificationException e) {
+        // something else wrote to the comment's entity group, such as another vote; try again
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+
+    logger.warning("Gave up ranking comment " + commentId + " after " + MAX_ATTEMPTS
+        + " concurrent modifications");
+    return false;
+  }
+
+  /** The lower bound of the Wilson score interval for the fraction of votes that are upvotes. */
+  public static double score(long upvotes, long downvotes) {
+    long n = upvotes + downvotes;
+    if (n == 0) {
+      return 0;
+    }
+
+    double p = (double) upvotes / n;
+    double z2 = Z * Z;
+    return (p + z2 / (2 * n) - Z * Math.sqrt((p * (1 - p) + z2 / (4 * n)) / n)) / (1 + z2 / n);
+  }
+
+  public static double hotness(long upvotes, long downvotes, Date timestamp) {
+    long net = upvotes - downvotes;
+    double order = Math.log10(Math.max(Math.abs(net), 1));
+    double seconds = timestamp.getTime() / 1000.0;
+    return Math.signum(net) * order + seconds / HOTNESS_SECONDS;
+  }
+}
@@ -0,0 +1,103 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+
+/**
+ * Maintains the indexed properties that summary pages are read from with a projection query, so
+ * that listing comments does not read their full content:
+ *
+ * <ul>
+ *   <li>{@code preview}, the start of the content;
+ *   <li>{@code contentLength}, the length of the full content in UTF-16 code units; and
+ *   <li>{@code translatedFrom}, the language the comment was translated from, which is empty until
+ *       a translation to English has been stored.
+ * </ul>
+ *
+ * A projection query only returns entities that have every projected property, so comments
+ * without these properties would be left out of summary pages. Until the backfill has recorded
+ * that every comment has them (see {@link #isBackfilled}), summary pages are read from the full
+ * comments instead.
+ */
+public class CommentSummary {
+  /**
+   * The maximum length of a preview. Indexed strings are limited to 1500 bytes, and this many
+   * characters take at most 1120 bytes in UTF-8.
+   */
+  public static final int PREVIEW_CHARS = 280;
+
+  /** How often an instance checks whether the backfill has finished, until it has. */
+  private static final long BACKFILL_CHECK_MS = 60 * 1000;
+
+  private static final Key BACKFILLED_KEY = KeyFactory.createKey("Backfill", "summaries");
+
+  private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private static volatile boolean backfilled;
+  private static volatile long nextBackfillCheck;
+
+  private CommentSummary() {}
+
+  /** Sets the summary properties of a new comment. */
+  public static void initialize(Entity comment, String content) {
+    comment.setProperty("preview", preview(content));
+    comment.setProperty("contentLength", (long) content.length());
+    comment.setProperty("translatedFrom", "");
+  }
+
+  /**
+   * Returns whether every comment has the summary properties, so that summary pages can be read
+   * with {@link #project}. Once it is true, it stays true.
+   */
+  public static boolean isBackfilled() {
+    long now = System.currentTimeMillis();
+    if (!backfilled && now >= nextBackfillCheck) {
+      nextBackfillCheck = now + BACKFILL_CHECK_MS;
+      try {
+        datastore.get(BACKFILLED_KEY);
+        backfilled = true;
+      } catch (EntityNotFoundException e) {
+        // the backfill has not finished yet
+      }
+    }
+    return backfilled;
+  }
+
+  /** Records that every comment has the summary properties. */
+  public static void markBackfilled() {
+    datastore.put(new Entity(BACKFILLED_KEY));
+    backfilled = true;
+  }
+
+  /**
+   * Adds the properties that summary pages need to a query. Only use it once
+   * {@link #isBackfilled} is true.
+   */
+  public static Query project(Query query) {
+    return query
+        .addProjection(new PropertyProjection("name", String.class))
+        .addProjection(new PropertyProjection("preview", String.class))
+        .addProjection(new PropertyProjection("contentLength", Long.class))
+        .addProjection(new PropertyProjection("translatedFrom", String.class))
+        .addProjection(new PropertyProjection("shameful", Boolean.class));
+  }
+
+  /** Returns the start of some content, without splitting a surrogate pair. */
+  public static String preview(String content) {
+    if (content.length() <= PREVIEW_CHARS) {
+      return content;
+    }
+
+    int end = PREVIEW_CHARS;
+    if (Character.isHighSurrogate(content.charAt(end - 1))) {
+      end--;
+    }
+    return content.substring(0, end);
+  }
+}
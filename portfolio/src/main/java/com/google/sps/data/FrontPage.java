@@ -0,0 +1,185 @@
+package com.google.sps.data;
+
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.stats.Stats;
+
+/**
+ * Snapshot of the front page: the first page of newest comments, as seen by a visitor who is not
+ * logged in. It is by far the most requested page, so instead of every instance querying for it,
+ * a task renders it after comments or votes change and stores it in a single entity, which any
+ * instance can serve with one key lookup. There is one snapshot of the full page, and one of the
+ * {@link CommentSummary summary} page.
+ *
+ * Like {@link CommentPageCache}, the snapshot records the {@link Versions#getPageVersion page
+ * version} it was rendered at, and is only served while that is still current. Writes within the
+ * same window share one rebuild, so for a moment after a write the page is queried as usual.
+ *
+ * The page is rendered from a query, which is only eventually consistent, so a rebuild may miss
+ * the very writes that scheduled it and still be stamped with their version. Each rebuild is
+ * therefore followed by another one a window later, which replaces such a page once the query has
+ * caught up.
+ */
+public class FrontPage {
+  public static final String WORKER_URL = "/api/tasks/front-page";
+
+  /** The number of comments on the front page, which is the default page size. */
+  public static final int SIZE = 20;
+
+  /** Writes within the same window share one rebuild, which runs at the end of the window. */
+  private static final long BATCH_WINDOW_MS = 2000;
+
+  /**
+   * A snapshot which has been out of date for this long is rebuilt when it is read, in case a
+   * write could not schedule the rebuild, or memcache lost the page version.
+   */
+  private static final long REBUILD_AFTER_MS = 60 * 1000;
+
+  private static final Key FULL_KEY = KeyFactory.createKey("FrontPage", "new");
+  private static final Key SUMMARY_KEY = KeyFactory.createKey("FrontPage", "new/summary");
+
+  private static final FrontPage instance =
+      new FrontPage(DatastoreServiceFactory.getDatastoreService(), QueueFactory.getDefaultQueue());
+
+  static {
+    Stats.register("front_page_snapshot_hits", instance::getHits);
+    Stats.register("front_page_snapshot_misses", instance::getMisses);
+  }
+
+  private final DatastoreService datastore;
+  private final Queue queue;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  FrontPage(DatastoreService datastore, Queue queue) {
+    this.datastore = datastore;
+    this.queue = queue;
+  }
+
+  public static FrontPage getInstance() {
+    return instance;
+  }
+
+  /** Makes sure the snapshot will be rebuilt soon, after comments or votes have changed. */
+  public void schedule() {
+    long window = System.currentTimeMillis() / BATCH_WINDOW_MS;
+
+    try {
+      // named tasks are deduplicated by the task queue, so this only adds one task per window
+      queue.add(TaskOptions.Builder.withUrl(WORKER_URL)
+          .taskName("front-page-" + window)
+          .countdownMillis(BATCH_WINDOW_MS));
+    } catch (TaskAlreadyExistsException e) {
+      // another write in this window already scheduled the rebuild
+    }
+  }
+
+  /** Schedules the rebuild that follows a rebuild, in case its query missed recent writes. */
+  public void scheduleFollowUp() {
+    long window = System.currentTimeMillis() / BATCH_WINDOW_MS;
+
+    try {
+      queue.add(TaskOptions.Builder.withUrl(WORKER_URL)
+          .param("followUp", "true")
+          .taskName("front-page-" + window + "-follow-up")
+          .countdownMillis(BATCH_WINDOW_MS));
+    } catch (TaskAlreadyExistsException e) {
+      // another rebuild in this window already scheduled it
+    }
+  }
+
+  /**
+   * Returns the front page, if the snapshot is up to date.
+   *
+   * @param summary Whether to return the summary page rather than the full page.
+   * @param version The current page version.
+   * @return The page's JSON, or null if there is no snapshot of this version.
+   */
+  public String get(boolean summary, long version) {
+    Entity snapshot;
+    try {
+      snapshot = datastore.get(summary ? SUMMARY_KEY : FULL_KEY);
+    } catch (EntityNotFoundException e) {
+      misses.incrementAndGet();
+      schedule();
+      return null;
+    }
+
+    if ((long) snapshot.getProperty("version") != version) {
+      misses.incrementAndGet();
+      Date builtAt = (Date) snapshot.getProperty("builtAt");
+      if (System.currentTimeMillis() - builtAt.getTime() > REBUILD_AFTER_MS) {
+        schedule();
+      }
+      return null;
+    }
+
+    hits.incrementAndGet();
+    return CommentBodies.get(snapshot, "page");
+  }
+
+  /**
+   * Stores a newly rendered front page, unless a newer one has already been stored.
+   *
+   * @param summary Whether the page is the summary page rather than the full page.
+   * @param version The page version that the page was rendered at.
+   * @param json The page, or null to remove the snapshot because the page is too large to store.
+   */
+  public void put(boolean summary, long version, String json) {
+    Key key = summary ? SUMMARY_KEY : FULL_KEY;
+    Transaction txn = datastore.beginTransaction();
+
+    try {
+      try {
+        // rebuilds may overlap, and the one which read the older version may finish last
+        Entity existing = datastore.get(txn, key);
+        if ((long) existing.getProperty("version") > version) {
+          return;
+        }
+      } catch (EntityNotFoundException e) {
+        // this is the first snapshot
+      }
+
+      if (json == null) {
+        datastore.delete(txn, key);
+      } else {
+        Entity snapshot = new Entity(key);
+        CommentBodies.set(snapshot, "page", json);
+        snapshot.setUnindexedProperty("version", version);
+        snapshot.setUnindexedProperty("builtAt", new Date());
+        datastore.put(txn, snapshot);
+      }
+
+      txn.commit();
+    } catch (ConcurrentModificationException e) {
+      // another rebuild stored its snapshot first; if it is out of date, the next one fixes it
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /** The number of front page requests served from the snapshot. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** The number of front page requests for which the snapshot was missing or out of date. */
+  public long getMisses() {
+    return misses.get();
+  }
+}
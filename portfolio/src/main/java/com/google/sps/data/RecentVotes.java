@@ -0,0 +1,124 @@
+package com.google.sps.data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import com.google.sps.servlets.comments.VoteKind;
+
+/**
+ * Bloom filter of the votes recently cast or confirmed on this instance, so that a user clicking
+ * the same vote button again can be recognized without a transaction. Like any Bloom filter, it
+ * can report a vote that was never cast, and it does not notice when a vote is changed on another
+ * instance, so a hit only means that the vote is worth checking for.
+ *
+ * Votes are remembered for one to two rotation periods: the filter has two generations, and each
+ * rotation drops the older one and starts a new one. A generation is also rotated early if it
+ * fills up, which would make it report too many false hits.
+ */
+class RecentVotes {
+  /** The number of bits in each generation. */
+  private static final int BITS = 1 << 20;
+
+  /** The number of bits set for each vote. */
+  private static final int HASHES = 7;
+
+  /** With 2^20 bits and 7 hashes, this many votes gives about a 1% false hit rate. */
+  private static final int CAPACITY = 100000;
+
+  private static final long ROTATION_MS = 10 * 60 * 1000;
+
+  private static final RecentVotes instance = new RecentVotes();
+
+  private volatile Generation current = new Generation(System.currentTimeMillis());
+  private volatile Generation previous = new Generation(0);
+
+  private static class Generation {
+    final long createdAt;
+    final AtomicLongArray bits = new AtomicLongArray(BITS / 64);
+    final AtomicInteger count = new AtomicInteger();
+
+    Generation(long createdAt) {
+      this.createdAt = createdAt;
+    }
+
+    void add(long hash1, long hash2) {
+      for (int i = 0; i < HASHES; i++) {
+        int bit = bit(hash1, hash2, i);
+        long mask = 1L << bit;
+        long word;
+        do {
+          word = bits.get(bit >>> 6);
+        } while ((word & mask) == 0 && !bits.compareAndSet(bit >>> 6, word, word | mask));
+      }
+      count.incrementAndGet();
+    }
+
+    boolean mightContain(long hash1, long hash2) {
+      for (int i = 0; i < HASHES; i++) {
+        int bit = bit(hash1, hash2, i);
+        if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int bit(long hash1, long hash2, int i) {
+      return (int) ((hash1 + i * hash2) & (BITS - 1));
+    }
+  }
+
+  /** The filter shared by every {@link VoteStore} on this instance. */
+  static RecentVotes getInstance() {
+    return instance;
+  }
+
+  /** Remembers a vote which is known to be stored. */
+  void add(String userId, long commentId, VoteKind kind) {
+    long hash = hash(userId, commentId, kind);
+    rotateIfNeeded().add(hash, mix(hash) | 1);
+  }
+
+  /** Returns whether a vote may have been cast recently, or false if it certainly was not. */
+  boolean mightContain(String userId, long commentId, VoteKind kind) {
+    long hash = hash(userId, commentId, kind);
+    long hash2 = mix(hash) | 1;
+    return rotateIfNeeded().mightContain(hash, hash2) || previous.mightContain(hash, hash2);
+  }
+
+  private Generation rotateIfNeeded() {
+    Generation gen = current;
+    long now = System.currentTimeMillis();
+    if (now - gen.createdAt < ROTATION_MS && gen.count.get() < CAPACITY) {
+      return gen;
+    }
+
+    synchronized (this) {
+      if (current == gen) {
+        previous = gen;
+        current = new Generation(now);
+      }
+      return current;
+    }
+  }
+
+  /** FNV-1a over the vote, mixed so that every bit of the result depends on every input bit. */
+  private static long hash(String userId, long commentId, VoteKind kind) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < userId.length(); i++) {
+      hash = (hash ^ userId.charAt(i)) * 0x100000001b3L;
+    }
+    hash = (hash ^ commentId) * 0x100000001b3L;
+    hash = (hash ^ kind.ordinal()) * 0x100000001b3L;
+    return mix(hash);
+  }
+
+  /**
+   * The finalizer of SplitMix64. It also derives the second hash for double hashing, which is made
+   * odd so that its multiples reach every bit.
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
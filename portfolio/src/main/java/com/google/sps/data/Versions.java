@@ -0,0 +1,90 @@
+package com.google.sps.data;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Version numbers of comment data, kept in memcache so that they are shared by every instance and
+ * can be read without touching Datastore. Every write bumps the versions of what it changed, so a
+ * version can be used as an ETag or to validate a cached response.
+ *
+ * If memcache evicts a version, it is re-created from the current time, so it will not repeat a
+ * value that was handed out before.
+ */
+public class Versions {
+  private static final String PAGES_KEY = "version:comments";
+  private static final String COMMENT_KEY_PREFIX = "version:comment:";
+
+  private static final Versions instance = new Versions();
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  public static Versions getInstance() {
+    return instance;
+  }
+
+  /**
+   * The version of comment pages, which changes whenever any comment is added or changed.
+   *
+   * @return The version, or null if memcache is unavailable.
+   */
+  public Long getPageVersion() {
+    return read(PAGES_KEY);
+  }
+
+  /**
+   * The version of a single comment's vote counts.
+   *
+   * @return The version, or null if memcache is unavailable.
+   */
+  public Long getCommentVersion(long commentId) {
+    return read(COMMENT_KEY_PREFIX + commentId);
+  }
+
+  /**
+   * The versions of several comments' vote counts, read with one memcache call.
+   *
+   * @return A map from comment ID to version, which is missing entries if memcache is unavailable.
+   */
+  public Map<Long, Long> getCommentVersions(Collection<Long> commentIds) {
+    Map<String, Long> keys = new HashMap<>();
+    for (long commentId : commentIds) {
+      keys.put(COMMENT_KEY_PREFIX + commentId, commentId);
+    }
+
+    Map<String, Long> found = memcache.incrementAll(keys.keySet(), 0, System.currentTimeMillis());
+
+    Map<Long, Long> versions = new HashMap<>();
+    found.forEach((key, version) -> {
+      if (version != null) {
+        versions.put(keys.get(key), version);
+      }
+    });
+    return versions;
+  }
+
+  /** Records that a comment was added, or that the content of a comment changed. */
+  public void pagesChanged() {
+    memcache.increment(PAGES_KEY, 1, System.currentTimeMillis());
+  }
+
+  /**
+   * Records that a comment's votes changed. This changes the pages it appears on, too.
+   *
+   * @return The comment's new version, or null if memcache is unavailable.
+   */
+  public Long commentChanged(long commentId) {
+    Long version =
+        memcache.increment(COMMENT_KEY_PREFIX + commentId, 1, System.currentTimeMillis());
+    pagesChanged();
+    return version;
+  }
+
+  private Long read(String key) {
+    // incrementing by zero reads the version, or creates it if it does not exist, in one call
+    return memcache.increment(key, 0, System.currentTimeMillis());
+  }
+}
@@ -0,0 +1,136 @@
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.servlets.comments.VoteKind;
+
+/**
+ * Vote tallies for comments, stored as sharded counters. Every comment has {@link #SHARD_COUNT}
+ * counter entities per vote kind. A vote increments one shard picked at random, so concurrent votes
+ * on a popular comment rarely touch the same entity, and readers sum all of the shards.
+ *
+ * Shards are root entities (not children of the comment) so that they do not share the comment's
+ * entity group and its write rate limit.
+ */
+public class VoteCounter {
+  public static final int SHARD_COUNT = 8;
+
+  private static final String KIND = "VoteShard";
+
+  private final DatastoreService datastore;
+
+  /** The number of up and down votes on a comment. */
+  public static class Tally {
+    public final long upvotes;
+    public final long downvotes;
+
+    public Tally(long upvotes, long downvotes) {
+      this.upvotes = upvotes;
+      this.downvotes = downvotes;
+    }
+  }
+
+  public VoteCounter(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /**
+   * Adds {@code delta} to one shard of a comment's counter as part of a transaction. The shard is
+   * picked at random, so a retry of the transaction after contention will likely pick another one.
+   * The transaction must be cross-group, since shards are root entities.
+   */
+  public void increment(Transaction txn, long commentId, VoteKind kind, long delta) {
+    Key key = shardKey(commentId, kind, ThreadLocalRandom.current().nextInt(SHARD_COUNT));
+
+    Entity shard;
+    try {
+      shard = datastore.get(txn, key);
+    } catch (EntityNotFoundException e) {
+      shard = new Entity(key);
+      shard.setUnindexedProperty("count", 0L);
+    }
+
+    shard.setUnindexedProperty("count", (long) shard.getProperty("count") + delta);
+    datastore.put(txn, shard);
+  }
+
+  /**
+   * Returns the keys of every shard of a comment's counters. Fetch these in the same batch get as
+   * the comment itself and pass the results to {@link #sum}.
+   */
+  public static List<Key> shardKeys(long commentId) {
+    List<Key> keys = new ArrayList<>(SHARD_COUNT * VoteKind.values().length);
+    for (VoteKind kind : VoteKind.values()) {
+      for (int shard = 0; shard < SHARD_COUNT; shard++) {
+        keys.add(shardKey(commentId, kind, shard));
+      }
+    }
+    return keys;
+  }
+
+  public static Key shardKey(long commentId, VoteKind kind, int shard) {
+    return KeyFactory.createKey(KIND, commentId + ":" + kind.name().toLowerCase() + ":" + shard);
+  }
+
+  /**
+   * Fetches the tallies of several comments with a single batch get.
+   *
+   * @return A map from comment ID to tally.
+   */
+  public Map<Long, Tally> getTallies(Collection<Entity> comments) {
+    List<Key> keys = new ArrayList<>(comments.size() * SHARD_COUNT * VoteKind.values().length);
+    for (Entity comment : comments) {
+      keys.addAll(shardKeys(comment.getKey().getId()));
+    }
+
+    Map<Key, Entity> shards = datastore.get(keys);
+    Map<Long, Tally> tallies = new HashMap<>();
+    for (Entity comment : comments) {
+      tallies.put(comment.getKey().getId(), sum(comment, shards));
+    }
+    return tallies;
+  }
+
+  /**
+   * Sums the shards of a comment's counters.
+   *
+   * @param comment The comment entity. Comments written before the counters were sharded keep
+   *     their old {@code upvotes} and {@code downvotes} properties until the backfill moves them
+   *     into shards, and until then they are added to the total.
+   * @param shards The result of a batch get that included {@link #shardKeys} for the comment.
+   *     Shards that were never written are simply missing from it.
+   */
+  public static Tally sum(Entity comment, Map<Key, Entity> shards) {
+    long commentId = comment.getKey().getId();
+    long upvotes = getLong(comment, "upvotes");
+    long downvotes = getLong(comment, "downvotes");
+
+    for (int shard = 0; shard < SHARD_COUNT; shard++) {
+      Entity up = shards.get(shardKey(commentId, VoteKind.UP, shard));
+      Entity down = shards.get(shardKey(commentId, VoteKind.DOWN, shard));
+      if (up != null) {
+        upvotes += getLong(up, "count");
+      }
+      if (down != null) {
+        downvotes += getLong(down, "count");
+      }
+    }
+
+    return new Tally(upvotes, downvotes);
+  }
+
+  private static long getLong(Entity entity, String property) {
+    Object value = entity.getProperty(property);
+    return value == null ? 0 : (long) value;
+  }
+}
@@ -0,0 +1,160 @@
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.sps.servlets.comments.VoteKind;
+import com.google.sps.stats.Stats;
+
+/**
+ * Records users' votes on comments. Each vote is a child of the comment it is for, keyed by the ID
+ * of the user who cast it, so a user's vote can be fetched by key instead of by query and a user
+ * can never have more than one vote on a comment.
+ *
+ * Votes cast before votes were keyed this way are root entities found by query, which this class
+ * does not read. {@code CommentBackfillTaskServlet} moves them here.
+ */
+public class VoteStore {
+  private static final int MAX_ATTEMPTS = 5;
+
+  private static final AtomicLong repeatsSkipped = new AtomicLong();
+  private static final AtomicLong falseRepeats = new AtomicLong();
+
+  static {
+    Stats.register("vote_repeats_skipped", repeatsSkipped::get);
+    Stats.register("vote_repeat_filter_false_hits", falseRepeats::get);
+  }
+
+  private final DatastoreService datastore;
+  private final VoteCounter counter;
+  private final RecentVotes recentVotes = RecentVotes.getInstance();
+
+  /** The outcome of casting a vote. */
+  public enum Result {
+    /** The comment does not exist. */
+    NOT_FOUND,
+    /** The user had already cast the same vote on this comment. */
+    UNCHANGED,
+    /** The vote was recorded and the comment's tally was updated. */
+    RECORDED
+  }
+
+  public VoteStore(DatastoreService datastore, VoteCounter counter) {
+    this.datastore = datastore;
+    this.counter = counter;
+  }
+
+  public static Key commentKey(long commentId) {
+    return KeyFactory.createKey("Comment", commentId);
+  }
+
+  public static Key voteKey(long commentId, String userId) {
+    return KeyFactory.createKey(commentKey(commentId), "Vote", userId);
+  }
+
+  /**
+   * Looks up a user's votes on several comments with a single batch get.
+   *
+   * @return A map from comment ID to the kind of vote the user cast, without the comments they did
+   *     not vote on.
+   */
+  public Map<Long, VoteKind> getVotes(String userId, Collection<Long> commentIds) {
+    List<Key> keys = new ArrayList<>(commentIds.size());
+    for (long commentId : commentIds) {
+      keys.add(voteKey(commentId, userId));
+    }
+
+    Map<Long, VoteKind> votes = new HashMap<>();
+    for (Entity voteEnt : datastore.get(keys).values()) {
+      VoteKind kind = VoteKind.valueOf((String) voteEnt.getProperty("kind"));
+      votes.put(voteEnt.getParent().getId(), kind);
+    }
+    return votes;
+  }
+
+  /**
+   * Casts a vote, replacing the user's previous vote on the comment if there was one. The comment
+   * and the previous vote are read with a single batch get, and the vote and the counter updates
+   * are written in the same cross-group transaction.
+   *
+   * Users often click the same vote button repeatedly. If {@link RecentVotes} has seen this vote
+   * before, the stored vote is read outside of a transaction first, and if it is the same, the
+   * transaction is skipped.
+   */
+  public Result cast(long commentId, String userId, VoteKind kind) {
+    Key commentKey = commentKey(commentId);
+    Key voteKey = voteKey(commentId, userId);
+    ConcurrentModificationException last = null;
+
+    if (recentVotes.mightContain(userId, commentId, kind)) {
+      try {
+        // a vote only exists if its comment does, so this also answers whether the comment exists
+        Entity voteEnt = datastore.get(voteKey);
+        if (VoteKind.valueOf((String) voteEnt.getProperty("kind")) == kind) {
+          repeatsSkipped.incrementAndGet();
+          return Result.UNCHANGED;
+        }
+      } catch (EntityNotFoundException e) {
+        // the filter's hit was false
+      }
+      falseRepeats.incrementAndGet();
+    }
+
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+
+      try {
+        Map<Key, Entity> entities = datastore.get(txn, Arrays.asList(commentKey, voteKey));
+
+        if (!entities.containsKey(commentKey)) {
+          return Result.NOT_FOUND;
+        }
+
+        Entity voteEnt = entities.get(voteKey);
+
+        if (voteEnt == null) {
+          // we are committing a new vote
+          voteEnt = new Entity(voteKey);
+        } else {
+          VoteKind previous = VoteKind.valueOf((String) voteEnt.getProperty("kind"));
+
+          if (previous == kind) {
+            recentVotes.add(userId, commentId, kind);
+            return Result.UNCHANGED;
+          }
+
+          // we are changing an existing vote, remove the old one
+          counter.increment(txn, commentId, previous, -1);
+        }
+
+        counter.increment(txn, commentId, kind, 1);
+
+        voteEnt.setUnindexedProperty("kind", kind.toString());
+        datastore.put(txn, voteEnt);
+        txn.commit();
+        recentVotes.add(userId, commentId, kind);
+        return Result.RECORDED;
+      } catch (ConcurrentModificationException e) {
+        last = e;
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+
+    throw last;
+  }
+}
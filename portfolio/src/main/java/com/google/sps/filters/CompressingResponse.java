@@ -0,0 +1,260 @@
+package com.google.sps.filters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response that compresses its body as it is written. Whether to compress is decided when the
+ * servlet asks for the output stream or writer: responses which already have a
+ * {@code Content-Encoding}, which have no body, or whose content type is not compressible (such as
+ * {@code text/event-stream}) are passed through untouched.
+ *
+ * The first {@link #MIN_SIZE} bytes are buffered, so that responses too small to benefit are sent
+ * uncompressed, with a {@code Content-Length}.
+ *
+ * Responses written with non-blocking I/O are also passed through, since a compressor cannot hold
+ * back its output until the container is ready for it. That is the case for responses whose stream
+ * is first asked for once the request is asynchronous, and for streams which are given a
+ * {@link WriteListener} before any compressed output was written.
+ */
+class CompressingResponse extends HttpServletResponseWrapper {
+  /** Below this, compression saves less than the gzip header and footer cost. */
+  static final int MIN_SIZE = 1024;
+
+  private final HttpServletRequest request;
+  private final String encoding;
+  private CompressingStream stream;
+  private PrintWriter writer;
+  private boolean passthrough;
+  private long contentLength = -1;
+
+  CompressingResponse(HttpServletRequest req, HttpServletResponse res, String encoding) {
+    super(res);
+    this.request = req;
+    this.encoding = encoding;
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null) {
+      throw new IllegalStateException("getWriter has already been called");
+    }
+    if (passthrough || !shouldCompress()) {
+      return passthrough().getOutputStream();
+    }
+    if (stream == null) {
+      stream = new CompressingStream();
+    }
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer != null) {
+      return writer;
+    }
+    if (stream != null) {
+      throw new IllegalStateException("getOutputStream has already been called");
+    }
+    if (passthrough || !shouldCompress()) {
+      return passthrough().getWriter();
+    }
+
+    stream = new CompressingStream();
+    writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+    return writer;
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    setContentLengthLong(len);
+  }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    // the length of a compressed body is not known until it is finished
+    if (passthrough) {
+      super.setContentLengthLong(len);
+    } else {
+      contentLength = len;
+    }
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    }
+    if (stream != null) {
+      stream.flush();
+    } else {
+      super.flushBuffer();
+    }
+  }
+
+  /** Writes out any buffered output and the end of the compressed stream. */
+  void finish() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    }
+    if (stream != null) {
+      stream.finish();
+    }
+  }
+
+  private boolean shouldCompress() {
+    int status = getStatus();
+    if (status < 200 || status == 204 || status == 304 || containsHeader("Content-Encoding")) {
+      return false;
+    }
+
+    String type = getContentType();
+    if (type == null || request.isAsyncStarted()) {
+      return false;
+    }
+
+    type = type.toLowerCase();
+    return type.startsWith("application/json") || type.startsWith("text/plain")
+        || type.startsWith("text/html");
+  }
+
+  private HttpServletResponse passthrough() {
+    HttpServletResponse res = (HttpServletResponse) getResponse();
+    if (!passthrough) {
+      passthrough = true;
+      if (contentLength >= 0) {
+        res.setContentLengthLong(contentLength);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Buffers output until it reaches {@link #MIN_SIZE}, and then compresses everything written to
+   * it. If it is finished before then, the buffered output is written uncompressed.
+   */
+  private class CompressingStream extends ServletOutputStream {
+    private final byte[] buffer = new byte[MIN_SIZE];
+    private int buffered;
+    private DeflaterOutputStream out;
+    /** The response's own stream, once a write listener has switched this to passing through. */
+    private ServletOutputStream raw;
+    private boolean finished;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (finished) {
+        throw new IOException("stream is closed");
+      }
+
+      if (raw != null) {
+        raw.write(b, off, len);
+        return;
+      }
+
+      if (out == null && buffered + len <= MIN_SIZE) {
+        System.arraycopy(b, off, buffer, buffered, len);
+        buffered += len;
+        return;
+      }
+
+      if (out == null) {
+        start();
+      }
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      // flushing before the buffer fills would commit to sending the response uncompressed
+      if (raw != null) {
+        raw.flush();
+      } else if (out != null) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      finish();
+    }
+
+    @Override
+    public boolean isReady() {
+      return raw == null || raw.isReady();
+    }
+
+    /**
+     * Switches to passing output through uncompressed, and hands the listener to the response's
+     * own stream. Anything buffered so far is written out first, which is still allowed to block.
+     *
+     * @throws IllegalStateException If compressed output has already been written.
+     */
+    @Override
+    public void setWriteListener(WriteListener listener) {
+      if (out != null) {
+        throw new IllegalStateException("compressed output has already been written");
+      }
+
+      HttpServletResponse res = passthrough();
+      try {
+        raw = res.getOutputStream();
+        raw.write(buffer, 0, buffered);
+      } catch (IOException e) {
+        listener.onError(e);
+        return;
+      }
+      buffered = 0;
+      raw.setWriteListener(listener);
+    }
+
+    void finish() throws IOException {
+      if (finished) {
+        return;
+      }
+      finished = true;
+
+      if (raw != null) {
+        // the servlet completes the response itself
+        return;
+      }
+
+      if (out != null) {
+        // also releases the compressor's native memory
+        out.close();
+        return;
+      }
+
+      HttpServletResponse res = (HttpServletResponse) getResponse();
+      res.setContentLength(buffered);
+      res.getOutputStream().write(buffer, 0, buffered);
+    }
+
+    private void start() throws IOException {
+      HttpServletResponse res = (HttpServletResponse) getResponse();
+      res.setHeader("Content-Encoding", encoding);
+
+      // sync flushing lets a flush send everything written so far, for responses that stream
+      OutputStream raw = res.getOutputStream();
+      out = encoding.equals("gzip")
+          ? new GZIPOutputStream(raw, MIN_SIZE, true)
+          : new DeflaterOutputStream(raw, true);
+
+      out.write(buffer, 0, buffered);
+    }
+  }
+}
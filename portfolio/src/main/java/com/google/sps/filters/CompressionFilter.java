@@ -0,0 +1,120 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.filters;
+
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Filter that compresses API responses with gzip or deflate, whichever the client accepts, as they
+ * are written. Small responses, event streams, and responses which a servlet has already encoded
+ * itself are sent as they are; see {@link CompressingResponse}.
+ *
+ * Servlets which keep precompressed copies of responses can read the negotiated encoding from the
+ * {@link #ENCODING_ATTRIBUTE} request attribute, and set {@code Content-Encoding} themselves.
+ */
+@WebFilter(urlPatterns = "/api/*", asyncSupported = true)
+public class CompressionFilter implements Filter {
+  /** Request attribute holding the encoding negotiated for the response, if there is one. */
+  public static final String ENCODING_ATTRIBUTE = "com.google.sps.filters.encoding";
+
+  @Override
+  public void init(FilterConfig config) {}
+
+  @Override
+  public void destroy() {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest req = (HttpServletRequest) request;
+    HttpServletResponse res = (HttpServletResponse) response;
+
+    // added rather than set, so that servlets must add their own Vary values too
+    res.addHeader("Vary", "Accept-Encoding");
+
+    String encoding = negotiate(req.getHeader("Accept-Encoding"));
+    if (encoding == null) {
+      chain.doFilter(req, res);
+      return;
+    }
+
+    req.setAttribute(ENCODING_ATTRIBUTE, encoding);
+    CompressingResponse wrapped = new CompressingResponse(req, res, encoding);
+
+    chain.doFilter(req, wrapped);
+
+    if (!req.isAsyncStarted()) {
+      wrapped.finish();
+    }
+  }
+
+  /**
+   * Picks an encoding from an {@code Accept-Encoding} header, preferring gzip to deflate.
+   *
+   * @return {@code "gzip"}, {@code "deflate"}, or null if the client accepts neither.
+   */
+  static String negotiate(String header) {
+    if (header == null) {
+      return null;
+    }
+
+    // an explicit q=0 overrides the wildcard
+    Boolean gzip = null;
+    Boolean deflate = null;
+    boolean any = false;
+
+    for (String entry : header.split(",")) {
+      String[] parts = entry.split(";");
+      String coding = parts[0].trim().toLowerCase();
+
+      boolean accepted = true;
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            accepted = Double.parseDouble(param.substring(2)) > 0;
+          } catch (NumberFormatException e) {
+            accepted = false;
+          }
+        }
+      }
+
+      if (coding.equals("gzip") || coding.equals("x-gzip")) {
+        gzip = accepted;
+      } else if (coding.equals("deflate")) {
+        deflate = accepted;
+      } else if (coding.equals("*")) {
+        any = accepted;
+      }
+    }
+
+    if (gzip == null ? any : gzip) {
+      return "gzip";
+    }
+    if (deflate == null ? any : deflate) {
+      return "deflate";
+    }
+    return null;
+  }
+}
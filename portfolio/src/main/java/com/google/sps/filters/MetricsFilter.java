@@ -0,0 +1,99 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.filters;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.google.sps.stats.Histogram;
+import com.google.sps.stats.Metrics;
+
+/**
+ * Filter that records how long each API request takes, and counts responses by status code. Both
+ * are labelled with the route, which is the servlet mapping that handled the request, so that
+ * requests for different comments count towards the same {@code /api/vote/*} route.
+ *
+ * Streaming requests, which continue asynchronously after the servlet returns, are counted but
+ * not timed.
+ */
+@WebFilter(urlPatterns = "/api/*", asyncSupported = true)
+public class MetricsFilter implements Filter {
+  /** Used for requests which do not match any servlet, so that they cannot add new routes. */
+  private static final String UNKNOWN_ROUTE = "unknown";
+
+  private final Set<String> routes = new HashSet<>();
+  private final Map<String, Histogram> durations = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> responses = new ConcurrentHashMap<>();
+
+  @Override
+  public void init(FilterConfig config) {
+    for (ServletRegistration registration : config.getServletContext()
+        .getServletRegistrations().values()) {
+      routes.addAll(registration.getMappings());
+    }
+  }
+
+  @Override
+  public void destroy() {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest req = (HttpServletRequest) request;
+    HttpServletResponse res = (HttpServletResponse) response;
+    long start = System.nanoTime();
+    int status = 500;
+
+    try {
+      chain.doFilter(req, res);
+      status = res.getStatus();
+    } finally {
+      String route = route(req);
+      String method = req.getMethod();
+
+      if (!req.isAsyncStarted()) {
+        durations.computeIfAbsent(route + " " + method,
+            k -> Metrics.histogram("http_request_duration_seconds", "route", route,
+                "method", method))
+            .recordSince(start);
+      }
+
+      String statusCode = Integer.toString(status);
+      responses.computeIfAbsent(route + " " + method + " " + statusCode,
+          k -> Metrics.counter("http_responses_total", "route", route, "method", method,
+              "status", statusCode))
+          .increment();
+    }
+  }
+
+  private String route(HttpServletRequest req) {
+    String servletPath = req.getServletPath();
+    String route = req.getPathInfo() == null ? servletPath : servletPath + "/*";
+    return routes.contains(route) ? route : UNKNOWN_ROUTE;
+  }
+}
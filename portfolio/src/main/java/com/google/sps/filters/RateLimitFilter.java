@@ -0,0 +1,83 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.filters;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.stats.Stats;
+
+/**
+ * Filter that limits how often each user can post comments and votes. Logged-in users are limited
+ * by user ID and everyone else by IP address. Requests over the limit get a 429 response with a
+ * {@code Retry-After} header.
+ */
+@WebFilter(urlPatterns = {"/api/comments", "/api/vote/*"}, asyncSupported = true)
+public class RateLimitFilter implements Filter {
+  /** Comments trigger a translation and a page invalidation, so they are limited tightly. */
+  private static RateLimiter comments = new RateLimiter(5, 1.0 / 10);
+  private static RateLimiter votes = new RateLimiter(20, 2);
+  private static UserService users = UserServiceFactory.getUserService();
+
+  static {
+    Stats.register("rate_limit_comments_rejected", comments::getRejections);
+    Stats.register("rate_limit_comments_buckets", comments::size);
+    Stats.register("rate_limit_votes_rejected", votes::getRejections);
+    Stats.register("rate_limit_votes_buckets", votes::size);
+  }
+
+  @Override
+  public void init(FilterConfig config) {}
+
+  @Override
+  public void destroy() {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest req = (HttpServletRequest) request;
+    HttpServletResponse res = (HttpServletResponse) response;
+
+    if (!req.getMethod().equals("POST")) {
+      chain.doFilter(req, res);
+      return;
+    }
+
+    RateLimiter limiter = req.getServletPath().equals("/api/comments") ? comments : votes;
+    String key = users.isUserLoggedIn()
+        ? "user:" + users.getCurrentUser().getUserId()
+        : "ip:" + req.getRemoteAddr();
+
+    long waitNanos = limiter.tryAcquire(key);
+    if (waitNanos > 0) {
+      res.setStatus(429);
+      res.setHeader("Retry-After",
+          Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999))));
+      return;
+    }
+
+    chain.doFilter(req, res);
+  }
+}
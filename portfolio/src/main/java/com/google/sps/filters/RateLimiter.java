@@ -0,0 +1,106 @@
+package com.google.sps.filters;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token-bucket rate limiter with one bucket per key, such as a user ID or an IP address.
+ *
+ * Each bucket is a single {@link AtomicLong} timestamp (as in the generic cell rate algorithm).
+ * Taking a token advances it by the refill interval, a token is available while it does not pass
+ * the current time, and the bucket is full once it lags the current time by the whole burst.
+ * Taking a token is therefore one compare-and-set and never blocks.
+ *
+ * Buckets live in a {@link ConcurrentHashMap}, and buckets that have refilled completely are swept
+ * out periodically so that idle keys do not use memory. A swept bucket is first marked as removed
+ * with a compare-and-set of its own, so a token cannot be taken from a bucket as it is removed.
+ */
+public class RateLimiter {
+  /** How many calls to {@link #tryAcquire} happen between sweeps of idle buckets. */
+  private static final int SWEEP_INTERVAL = 1024;
+
+  /** The timestamp of a bucket which has been swept out of the map. */
+  private static final long REMOVED = Long.MIN_VALUE;
+
+  private final long nanosPerToken;
+  private final long burstNanos;
+  private final LongSupplier clock;
+  private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+
+  /**
+   * @param capacity The number of requests a key can make in a burst.
+   * @param tokensPerSecond The rate at which a key's bucket refills.
+   */
+  public RateLimiter(int capacity, double tokensPerSecond) {
+    this(capacity, tokensPerSecond, System::nanoTime);
+  }
+
+  /** @param clock The source of the current time, in nanoseconds. */
+  RateLimiter(int capacity, double tokensPerSecond, LongSupplier clock) {
+    this.nanosPerToken = (long) (1e9 / tokensPerSecond);
+    this.burstNanos = nanosPerToken * capacity;
+    this.clock = clock;
+  }
+
+  /**
+   * Takes a token from a key's bucket.
+   *
+   * @return 0 if a token was taken, or else the number of nanoseconds until one is available.
+   */
+  public long tryAcquire(String key) {
+    long now = clock.getAsLong();
+
+    if (calls.incrementAndGet() % SWEEP_INTERVAL == 0) {
+      sweep(now);
+    }
+
+    AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now - burstNanos));
+
+    while (true) {
+      long last = bucket.get();
+      if (last == REMOVED) {
+        // a sweep removed the bucket after it was looked up, so start a new one
+        buckets.remove(key, bucket);
+        bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now - burstNanos));
+        continue;
+      }
+
+      // a bucket can't hold more than a full burst, no matter how long it has been idle
+      long next = Math.max(last, now - burstNanos) + nanosPerToken;
+
+      if (next > now) {
+        rejections.incrementAndGet();
+        return next - now;
+      }
+
+      if (bucket.compareAndSet(last, next)) {
+        return 0;
+      }
+    }
+  }
+
+  /** The number of requests that were rejected. */
+  public long getRejections() {
+    return rejections.get();
+  }
+
+  /** The number of keys which currently have a bucket. */
+  public int size() {
+    return buckets.size();
+  }
+
+  /** Removes buckets which have refilled completely, since they behave like new ones. */
+  void sweep(long now) {
+    buckets.forEach((key, bucket) -> {
+      long last = bucket.get();
+      if (last != REMOVED && last <= now - burstNanos && bucket.compareAndSet(last, REMOVED)) {
+        buckets.remove(key, bucket);
+      }
+    });
+  }
+}
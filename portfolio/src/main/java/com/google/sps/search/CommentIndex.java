@@ -0,0 +1,239 @@
+package com.google.sps.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import com.google.sps.stats.Stats;
+
+/**
+ * In-memory inverted index over the text of comments, ranked with BM25.
+ *
+ * Each comment is a document with a dense document number. Re-indexing a comment (for example,
+ * when its translation arrives) marks its old document as deleted and adds a new one, so posting
+ * lists only ever grow at the end. Deleted documents are skipped when searching.
+ */
+public class CommentIndex {
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+
+  /** Longer tokens are almost always junk, like URLs or base64. */
+  private static final int MAX_TOKEN_LENGTH = 40;
+
+  private static final CommentIndex instance = new CommentIndex();
+
+  static {
+    Stats.register("comment_index_size", instance::size);
+    Stats.register("comment_index_terms", instance::getTermCount);
+  }
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, PostingList> postings = new HashMap<>();
+  private final Map<Long, Integer> docsByComment = new HashMap<>();
+  private final BitSet deleted = new BitSet();
+  private long[] commentIds = new long[1024];
+  private int[] docLengths = new int[1024];
+  private int docCount;
+  private int liveDocCount;
+  private long liveLength;
+
+  /** A page of search results. */
+  public static class Results {
+    /** The IDs of the matching comments in this page, best match first. */
+    public final List<Long> commentIds;
+
+    /** The number of comments which matched, across all pages. */
+    public final int total;
+
+    Results(List<Long> commentIds, int total) {
+      this.commentIds = commentIds;
+      this.total = total;
+    }
+  }
+
+  /** The index shared by this instance. */
+  public static CommentIndex getInstance() {
+    return instance;
+  }
+
+  /**
+   * Adds a comment to the index, replacing it if it was already indexed.
+   *
+   * @param translated The comment's translation, or null if it does not have one.
+   */
+  public void add(long commentId, String content, String translated) {
+    // tokenize outside the lock
+    Map<String, Integer> termFrequencies = new HashMap<>();
+    int length = tokenize(content, termFrequencies);
+    if (translated != null) {
+      length += tokenize(translated, termFrequencies);
+    }
+
+    lock.writeLock().lock();
+    try {
+      remove(commentId);
+
+      int doc = docCount++;
+      if (doc == commentIds.length) {
+        commentIds = Arrays.copyOf(commentIds, doc * 2);
+        docLengths = Arrays.copyOf(docLengths, doc * 2);
+      }
+
+      commentIds[doc] = commentId;
+      docLengths[doc] = length;
+      docsByComment.put(commentId, doc);
+      liveDocCount++;
+      liveLength += length;
+
+      termFrequencies.forEach(
+          (term, frequency) -> postings.computeIfAbsent(term, t -> new PostingList())
+              .add(doc, frequency));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Finds the comments that best match a query. A comment matches if it contains any of the
+   * query's terms.
+   *
+   * @param offset The number of results to skip.
+   * @param limit The maximum number of results to return.
+   */
+  public Results search(String query, int offset, int limit) {
+    Set<String> terms = new LinkedHashSet<>(tokenize(query));
+
+    lock.readLock().lock();
+    try {
+      if (terms.isEmpty() || liveDocCount == 0) {
+        return new Results(Collections.emptyList(), 0);
+      }
+
+      double averageLength = (double) liveLength / liveDocCount;
+      float[] scores = new float[docCount];
+      int total = 0;
+
+      for (String term : terms) {
+        PostingList list = postings.get(term);
+        if (list == null) {
+          continue;
+        }
+
+        int df = list.getDocFrequency();
+        double idf = Math.log(1 + (liveDocCount - df + 0.5) / (df + 0.5));
+
+        PostingList.Cursor cursor = list.cursor();
+        while (cursor.next()) {
+          int doc = cursor.doc();
+          if (deleted.get(doc)) {
+            continue;
+          }
+
+          double tf = cursor.termFrequency();
+          double norm = K1 * (1 - B + B * docLengths[doc] / averageLength);
+          if (scores[doc] == 0) {
+            total++;
+          }
+          scores[doc] += (float) (idf * tf * (K1 + 1) / (tf + norm));
+        }
+      }
+
+      // keep the best offset + limit documents, with the worst of them at the head
+      int wanted = offset + limit;
+      PriorityQueue<Integer> best = new PriorityQueue<>(Math.max(1, Math.min(wanted, total)),
+          (a, b) -> Float.compare(scores[a], scores[b]));
+      for (int doc = 0; doc < docCount && wanted > 0; doc++) {
+        if (scores[doc] == 0) {
+          continue;
+        }
+        if (best.size() < wanted) {
+          best.add(doc);
+        } else if (scores[doc] > scores[best.peek()]) {
+          best.poll();
+          best.add(doc);
+        }
+      }
+
+      List<Long> page = new ArrayList<>(best.size());
+      while (!best.isEmpty()) {
+        page.add(commentIds[best.poll()]);
+      }
+      Collections.reverse(page);
+
+      return new Results(page.subList(Math.min(offset, page.size()), page.size()), total);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** The number of comments in the index. */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return liveDocCount;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** The number of distinct terms in the index. */
+  public int getTermCount() {
+    lock.readLock().lock();
+    try {
+      return postings.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Marks a comment's document as deleted. Must be called with the write lock held. */
+  private void remove(long commentId) {
+    Integer doc = docsByComment.remove(commentId);
+    if (doc != null) {
+      deleted.set(doc);
+      liveDocCount--;
+      liveLength -= docLengths[doc];
+    }
+  }
+
+  /**
+   * Splits text into lowercase terms at anything that is not a letter or digit, and adds up how
+   * often each one appears.
+   *
+   * @return The number of terms in the text.
+   */
+  private static int tokenize(String text, Map<String, Integer> termFrequencies) {
+    List<String> terms = tokenize(text);
+    for (String term : terms) {
+      termFrequencies.merge(term, 1, Integer::sum);
+    }
+    return terms.size();
+  }
+
+  private static List<String> tokenize(String text) {
+    List<String> terms = new ArrayList<>();
+    StringBuilder term = new StringBuilder();
+
+    for (int i = 0; i <= text.length(); i++) {
+      char c = i < text.length() ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        term.append(Character.toLowerCase(c));
+      } else if (term.length() > 0) {
+        if (term.length() <= MAX_TOKEN_LENGTH) {
+          terms.add(term.toString());
+        }
+        term.setLength(0);
+      }
+    }
+
+    return terms;
+  }
+}
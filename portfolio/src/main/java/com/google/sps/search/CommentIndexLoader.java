@@ -0,0 +1,47 @@
+package com.google.sps.search;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.sps.data.CommentBodies;
+
+/**
+ * Builds the {@link CommentIndex} from Datastore when the instance starts, reading the comments in
+ * chunks so that they are not all held in memory at once.
+ */
+@WebListener
+public class CommentIndexLoader implements ServletContextListener {
+  private static final int CHUNK_SIZE = 500;
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    CommentIndex index = CommentIndex.getInstance();
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(CHUNK_SIZE);
+
+    while (true) {
+      QueryResultList<Entity> chunk =
+          datastore.prepare(new Query("Comment")).asQueryResultList(fetchOptions);
+
+      for (Entity comment : chunk) {
+        index.add(comment.getKey().getId(), CommentBodies.get(comment, "content"),
+            CommentBodies.get(comment, "contentTranslated"));
+      }
+
+      if (chunk.size() < CHUNK_SIZE) {
+        break;
+      }
+
+      fetchOptions.startCursor(chunk.getCursor());
+    }
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {}
+}
@@ -0,0 +1,84 @@
+package com.google.sps.search;
+
+import java.util.Arrays;
+
+/**
+ * The documents containing a term, in increasing order of document number, with the number of
+ * times the term appears in each. Entries are stored as pairs of variable-length integers: the gap
+ * from the previous document number, then the term frequency. Most gaps and frequencies are small,
+ * so an entry usually takes two bytes.
+ */
+class PostingList {
+  private byte[] data = new byte[8];
+  private int length;
+  private int lastDoc = -1;
+  private int docFrequency;
+
+  /** Appends a document. Documents must be added in increasing order. */
+  void add(int doc, int termFrequency) {
+    ensureCapacity(10);
+    writeVarint(doc - lastDoc);
+    writeVarint(termFrequency);
+    lastDoc = doc;
+    docFrequency++;
+  }
+
+  /** The number of documents in the list, including deleted ones. */
+  int getDocFrequency() {
+    return docFrequency;
+  }
+
+  Cursor cursor() {
+    return new Cursor();
+  }
+
+  /** Reads the entries of the list in order. */
+  class Cursor {
+    private int position;
+    private int doc = -1;
+    private int termFrequency;
+
+    boolean next() {
+      if (position >= length) {
+        return false;
+      }
+      doc += readVarint();
+      termFrequency = readVarint();
+      return true;
+    }
+
+    int doc() {
+      return doc;
+    }
+
+    int termFrequency() {
+      return termFrequency;
+    }
+
+    private int readVarint() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[position++];
+        value |= (b & 0x7f) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+  }
+
+  private void writeVarint(int value) {
+    while ((value & ~0x7f) != 0) {
+      data[length++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    data[length++] = (byte) value;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (length + extra > data.length) {
+      data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+    }
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.admin;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.stats.Metrics;
+
+/**
+ * Servlet that returns this instance's metrics in the Prometheus text format. Available to admins,
+ * and to scrapers which send the token in the {@code portfolio.metricsToken} system property as
+ * {@code Authorization: Bearer <token>}.
+ */
+@WebServlet("/api/metrics")
+public class MetricsServlet extends HttpServlet {
+  private static UserService users = UserServiceFactory.getUserService();
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    if (!hasToken(req) && (!users.isUserLoggedIn() || !users.isUserAdmin())) {
+      res.setStatus(403);
+      return;
+    }
+
+    res.setContentType("text/plain; version=0.0.4");
+    res.setCharacterEncoding("UTF-8");
+    res.setStatus(200);
+
+    Writer out = res.getWriter();
+    Metrics.write(out);
+    out.flush();
+  }
+
+  private static boolean hasToken(HttpServletRequest req) {
+    String token = System.getProperty("portfolio.metricsToken");
+    String header = req.getHeader("Authorization");
+    if (token == null || token.isEmpty() || header == null) {
+      return false;
+    }
+
+    // compare in constant time, so that the token cannot be guessed one character at a time
+    return MessageDigest.isEqual(("Bearer " + token).getBytes(StandardCharsets.UTF_8),
+        header.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,46 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.admin;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.JsonObject;
+import com.google.sps.stats.Stats;
+
+/** Servlet that returns the counters kept by this instance. Only available to admins. */
+@WebServlet("/api/stats")
+public class StatsServlet extends HttpServlet {
+  private static UserService users = UserServiceFactory.getUserService();
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    if (!users.isUserLoggedIn() || !users.isUserAdmin()) {
+      res.setStatus(403);
+      return;
+    }
+
+    JsonObject root = new JsonObject();
+    Stats.snapshot().forEach(root::addProperty);
+
+    res.setContentType("application/json");
+    res.setStatus(200);
+    res.getWriter().print(root.toString());
+  }
+}
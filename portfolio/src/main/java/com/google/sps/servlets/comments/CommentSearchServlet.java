@@ -0,0 +1,111 @@
+package com.google.sps.servlets.comments;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.CommentPageWriter;
+import com.google.sps.data.VoteCounter;
+import com.google.sps.data.VoteCounter.Tally;
+import com.google.sps.data.VoteStore;
+import com.google.sps.search.CommentIndex;
+
+/**
+ * Servlet that searches the text of comments, and their translations. Results are ranked by
+ * relevance and paginated with {@code offset} and {@code limit}.
+ */
+@WebServlet("/api/comments/search")
+public class CommentSearchServlet extends HttpServlet {
+  private static final int DEFAULT_LIMIT = 20;
+  private static final int MAX_LIMIT = 50;
+
+  /** Deep pages are rarely useful, and cost as much to rank as all of the pages before them. */
+  private static final int MAX_OFFSET = 1000;
+
+  private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static UserService users = UserServiceFactory.getUserService();
+  private static VoteCounter votes = new VoteCounter(datastore);
+  private static VoteStore voteStore = new VoteStore(datastore, votes);
+  private static CommentIndex index = CommentIndex.getInstance();
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    String query = req.getParameter("q");
+    if (query == null) {
+      res.setStatus(400);
+      return;
+    }
+
+    int limit = DEFAULT_LIMIT;
+    int offset = 0;
+    try {
+      if (req.getParameter("limit") != null) {
+        limit = Math.min(Integer.parseInt(req.getParameter("limit")), MAX_LIMIT);
+      }
+      if (req.getParameter("offset") != null) {
+        offset = Integer.parseInt(req.getParameter("offset"));
+      }
+    } catch (NumberFormatException ex) {
+      res.setStatus(400);
+      return;
+    }
+
+    if (limit < 1 || offset < 0 || offset > MAX_OFFSET) {
+      res.setStatus(400);
+      return;
+    }
+
+    CommentIndex.Results results = index.search(query, offset, limit);
+
+    List<Key> keys = new ArrayList<>(results.commentIds.size());
+    for (long commentId : results.commentIds) {
+      keys.add(VoteStore.commentKey(commentId));
+    }
+
+    // keep the comments in rank order, leaving out any that have been deleted
+    Map<Key, Entity> found = datastore.get(keys);
+    List<Entity> comments = new ArrayList<>(found.size());
+    List<Long> commentIds = new ArrayList<>(found.size());
+    for (Key key : keys) {
+      Entity comment = found.get(key);
+      if (comment != null) {
+        comments.add(comment);
+        commentIds.add(key.getId());
+      }
+    }
+
+    Map<Long, Tally> tallies = votes.getTallies(comments);
+    Map<Long, VoteKind> myVotes = users.isUserLoggedIn()
+        ? voteStore.getVotes(users.getCurrentUser().getUserId(), commentIds)
+        : null;
+
+    int nextOffset = offset + results.commentIds.size();
+
+    res.setContentType("application/json");
+    res.setStatus(200);
+
+    JsonWriter out = new JsonWriter(res.getWriter());
+    out.beginObject();
+    out.name("comments");
+    CommentPageWriter.writeComments(out, comments, tallies, myVotes);
+    out.name("total").value(results.total);
+    if (nextOffset < results.total) {
+      out.name("nextOffset").value(nextOffset);
+    } else {
+      out.name("nextOffset").nullValue();
+    }
+    out.endObject();
+    out.flush();
+  }
+}
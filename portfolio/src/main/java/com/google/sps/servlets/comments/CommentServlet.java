@@ -14,11 +14,15 @@
 
 package com.google.sps.servlets.comments;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
@@ -31,54 +35,136 @@ import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.cloud.translate.Translate;
-import com.google.cloud.translate.TranslateOptions;
-import com.google.cloud.translate.Translation;
-import com.google.cloud.translate.Translate.TranslateOption;
 import com.google.appengine.api.datastore.QueryResultList;
-import com.google.appengine.api.datastore.Text;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.CapturingWriter;
+import com.google.sps.data.CommentBodies;
+import com.google.sps.data.CommentPageCache;
+import com.google.sps.data.CommentPageCache.Page;
+import com.google.sps.data.CommentPageWriter;
+import com.google.sps.data.CommentRanking;
+import com.google.sps.data.CommentSummary;
+import com.google.sps.data.FrontPage;
+import com.google.sps.data.Versions;
+import com.google.sps.data.VoteCounter;
+import com.google.sps.data.VoteCounter.Tally;
+import com.google.sps.data.VoteStore;
+import com.google.sps.filters.CompressionFilter;
+import com.google.sps.search.CommentIndex;
+import com.google.sps.stats.Histogram;
+import com.google.sps.stats.Metrics;
+import com.google.sps.text.BoundedUtf8Decoder;
+import com.google.sps.text.NearDuplicateIndex;
+import com.google.sps.translation.CommentTranslations;
+import com.google.sps.translation.TranslationQueue;
+import com.google.sps.translation.Translator;
 
-/** Servlet that returns comment information. */
-@WebServlet("/api/comments")
+/**
+ * Servlet that returns comment information. {@code /api/comments} lists and posts comments, and
+ * {@code /api/comments/<id>} returns a single comment.
+ */
+@WebServlet({"/api/comments", "/api/comments/*"})
 @MultipartConfig
 public class CommentServlet extends HttpServlet {
+  /** Pages larger than this are streamed to the client without being cached. */
+  private static final int MAX_CACHED_PAGE_CHARS = 256 * 1024;
+
+  /** Language codes that viewers may ask for translations into, such as {@code pt-BR}. */
+  private static final Pattern LANGUAGE_PATTERN = Pattern.compile("[a-z]{2,3}(-[A-Za-z]{2,4})?");
+
+  /** The indexed property that each ordering sorts by, in descending order. */
+  private static final Map<String, String> SORT_PROPERTIES = new HashMap<>();
+
+  static {
+    SORT_PROPERTIES.put("new", "timestamp");
+    SORT_PROPERTIES.put("top", "score");
+    SORT_PROPERTIES.put("hot", "hotness");
+  }
+
   private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
   private static UserService users = UserServiceFactory.getUserService();
-  private static Translate translate = TranslateOptions.getDefaultInstance().getService();
-  private static Pattern htmlDetector =
-      Pattern.compile("<\\w+(\\s*\\w+\\s*(=\\s*['\"].*['\"]))*>.*<\\/\\w+>", Pattern.DOTALL);
+  private static VoteCounter votes = new VoteCounter(datastore);
+  private static VoteStore voteStore = new VoteStore(datastore, votes);
+  private static CommentPageCache pageCache = CommentPageCache.getInstance();
+  private static Versions versions = Versions.getInstance();
+  private static CommentIndex index = CommentIndex.getInstance();
+  private static FrontPage frontPage = FrontPage.getInstance();
+  private static NearDuplicateIndex recentComments = NearDuplicateIndex.getInstance();
+  private static CommentTranslations translations = CommentTranslations.getInstance();
+
+  private static Histogram queryTime =
+      Metrics.histogram("datastore_call_duration_seconds", "operation", "comments_query");
+  private static Histogram talliesTime =
+      Metrics.histogram("datastore_call_duration_seconds", "operation", "tallies_get");
+  private static Histogram commentTime =
+      Metrics.histogram("datastore_call_duration_seconds", "operation", "comment_get");
+  private static Histogram myVotesTime =
+      Metrics.histogram("datastore_call_duration_seconds", "operation", "votes_get");
+  private static Histogram putTime =
+      Metrics.histogram("datastore_call_duration_seconds", "operation", "comment_put");
 
+  /**
+   * Returns a page of comments. The {@code sort} parameter picks the ordering: {@code new} (the
+   * default) for newest first, {@code top} by Wilson score, or {@code hot} by hotness. See
+   * {@link CommentRanking} for the latter two.
+   *
+   * With {@code summary=1}, comments have a short preview instead of their full content and
+   * translation, which can be fetched from {@code /api/comments/<id>}. See {@link CommentSummary}.
+   *
+   * With {@code lang=<code>}, each comment that is not already in that language also has a
+   * {@code localized} translation into it. Missing translations are fetched for the whole page in
+   * one call, and kept by {@link CommentTranslations}. Summaries are not translated, since their
+   * previews would be translated again when the full comment is fetched.
+   */
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
-    Query query = new Query("Comment").addSort("timestamp", SortDirection.DESCENDING);
+    if (req.getPathInfo() != null && !req.getPathInfo().equals("/")) {
+      doGetComment(req, res);
+      return;
+    }
+
+    boolean summary = "1".equals(req.getParameter("summary"));
+    String lang = summary ? null : req.getParameter("lang");
+    if (lang != null && !LANGUAGE_PATTERN.matcher(lang).matches()) {
+      res.setStatus(400);
+      return;
+    }
 
-    FetchOptions fetchOptions;
+    String sort = req.getParameter("sort") == null ? "new" : req.getParameter("sort");
+    String sortProperty = SORT_PROPERTIES.get(sort);
+    if (sortProperty == null) {
+      res.setStatus(400);
+      return;
+    }
 
+    Query query = new Query("Comment").addSort(sortProperty, SortDirection.DESCENDING);
+    if (summary && CommentSummary.isBackfilled()) {
+      CommentSummary.project(query);
+    }
+
+    int limit = FrontPage.SIZE;
     if (req.getParameter("limit") != null) {
-      int limit;
       try {
-        limit = Integer.parseInt(req.getParameter("limit"));
+        limit = Math.min(Integer.parseInt(req.getParameter("limit")), 50);
       } catch (NumberFormatException ex) {
         res.setStatus(400);
         return;
       }
-
-      fetchOptions = FetchOptions.Builder.withLimit(Math.min(limit, 50));
-    } else {
-      fetchOptions = FetchOptions.Builder.withLimit(20);
     }
 
-    if (req.getParameter("cursor") != null) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+    String cursor = req.getParameter("cursor");
+
+    if (cursor != null) {
       Cursor start;
       try {
-        start = Cursor.fromWebSafeString(req.getParameter("cursor"));
+        start = Cursor.fromWebSafeString(cursor);
       } catch (IllegalArgumentException ex) {
         res.setStatus(400);
         return;
@@ -87,43 +173,212 @@ public class CommentServlet extends HttpServlet {
       fetchOptions.startCursor(start);
     }
 
+    // pages include the logged-in user's own votes, so they are different for every user
+    String userId = users.isUserLoggedIn() ? users.getCurrentUser().getUserId() : null;
+
+    // read the version before querying, so that a page which races with a write gets the old one
+    Long version = versions.getPageVersion();
+
+    // clients may cache pages, but must check that they are still current
+    res.setHeader("Cache-Control", "no-cache");
+    res.addHeader("Vary", "Cookie");
+
+    if (version != null) {
+      String etag = (summary ? "\"s" : "\"p") + version;
+      if (userId != null) {
+        etag += "-" + Integer.toHexString(userId.hashCode());
+      }
+      if (lang != null) {
+        etag += "-" + lang;
+      }
+      etag += "\"";
+
+      if (ETags.isNotModified(req, etag)) {
+        res.setStatus(304);
+        return;
+      }
+      res.setHeader("ETag", etag);
+    }
+
+    res.setContentType("application/json");
+    res.setCharacterEncoding("UTF-8");
+    res.setStatus(200);
+
+    // only pages without a user's votes are shared through the cache
+    boolean cacheable = version != null && userId == null;
+    String cacheKey = summary ? sort + "/summary" : lang != null ? sort + "/" + lang : sort;
+
+    Page cached = cacheable ? pageCache.get(cacheKey, cursor, limit, version) : null;
+    if (cached != null) {
+      res.setHeader("X-Cache", "HIT");
+
+      // send the cached gzipped copy instead of compressing the page again
+      if ("gzip".equals(req.getAttribute(CompressionFilter.ENCODING_ATTRIBUTE))) {
+        byte[] gzipped = cached.getGzipped();
+        res.setHeader("Content-Encoding", "gzip");
+        res.setContentLength(gzipped.length);
+        res.getOutputStream().write(gzipped);
+      } else {
+        res.getWriter().print(cached.getJson());
+      }
+      return;
+    }
+
+    // the front page is kept rendered in Datastore, so it needs only one key lookup
+    boolean isFrontPage = sort.equals("new") && cursor == null && limit == FrontPage.SIZE
+        && lang == null;
+    String snapshot = cacheable && isFrontPage ? frontPage.get(summary, version) : null;
+    if (snapshot != null) {
+      res.setHeader("X-Cache", "SNAPSHOT");
+      pageCache.put(cacheKey, cursor, limit, version, snapshot);
+      res.getWriter().print(snapshot);
+      return;
+    }
+
+    long start = System.nanoTime();
     QueryResultList<Entity> results = datastore.prepare(query).asQueryResultList(fetchOptions);
+    queryTime.recordSince(start);
 
-    JsonObject root = new JsonObject();
-    JsonArray comments = new JsonArray();
+    start = System.nanoTime();
+    Map<Long, Tally> tallies = votes.getTallies(results);
+    talliesTime.recordSince(start);
 
-    results.stream().forEach(ent -> {
-      JsonObject comment = new JsonObject();
-      comment.addProperty("id", ent.getKey().getId());
-      comment.addProperty("name", (String) ent.getProperty("name"));
-      comment.addProperty("content", ((Text) ent.getProperty("content")).getValue());
+    Map<Long, VoteKind> myVotes = null;
 
-      if (ent.hasProperty("contentLang")) {
-        comment.addProperty("contentLang", (String) ent.getProperty("contentLang"));
-        comment.addProperty("contentTranslated",
-            ((Text) ent.getProperty("contentTranslated")).getValue());
+    if (userId != null) {
+      List<Long> commentIds = new ArrayList<>(results.size());
+      for (Entity ent : results) {
+        commentIds.add(ent.getKey().getId());
       }
 
-      comment.addProperty("shameful", (boolean) ent.getProperty("shameful"));
-      comment.addProperty("upvotes", (long) ent.getProperty("upvotes"));
-      comment.addProperty("downvotes", (long) ent.getProperty("downvotes"));
-      comments.add(comment);
-    });
+      start = System.nanoTime();
+      myVotes = voteStore.getVotes(userId, commentIds);
+      myVotesTime.recordSince(start);
+    }
 
-    root.add("comments", comments);
-    root.addProperty("nextCommentCursor", results.getCursor().toWebSafeString());
+    Map<Long, Translator.Result> localized = lang == null ? null : localize(results, lang);
+    if (lang != null && localized == null) {
+      // the page is still useful untranslated, but must not be cached without its translations
+      cacheable = false;
+      res.setHeader("ETag", null);
+    }
+
+    res.setHeader("X-Cache", "MISS");
+
+    // stream the page to the client, keeping a copy for the cache if it is not too large
+    CapturingWriter capture = new CapturingWriter(res.getWriter(), MAX_CACHED_PAGE_CHARS);
+    JsonWriter out = new JsonWriter(capture);
+    if (summary) {
+      CommentPageWriter.writeSummaries(out, results, tallies, myVotes,
+          results.getCursor().toWebSafeString());
+    } else {
+      CommentPageWriter.write(out, results, tallies, myVotes, localized,
+          results.getCursor().toWebSafeString());
+    }
+    out.flush();
+
+    String page = capture.getCaptured();
+    if (page != null && cacheable) {
+      pageCache.put(cacheKey, cursor, limit, version, page);
+    }
+  }
+
+  /**
+   * Returns one comment, with its full content and translation, looked up by key. Like pages, it
+   * can be translated into the viewer's language with {@code lang=<code>}.
+   */
+  private void doGetComment(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    String lang = req.getParameter("lang");
+    if (lang != null && !LANGUAGE_PATTERN.matcher(lang).matches()) {
+      res.setStatus(400);
+      return;
+    }
+
+    long commentId;
+    try {
+      // skip leading forward slash
+      commentId = Long.parseLong(req.getPathInfo().substring(1));
+    } catch (NumberFormatException e) {
+      res.setStatus(404);
+      return;
+    }
+
+    long start = System.nanoTime();
+    Entity comment;
+    try {
+      comment = datastore.get(VoteStore.commentKey(commentId));
+    } catch (EntityNotFoundException e) {
+      res.setStatus(404);
+      return;
+    } finally {
+      commentTime.recordSince(start);
+    }
+
+    start = System.nanoTime();
+    Map<Long, Tally> tallies = votes.getTallies(Collections.singletonList(comment));
+    talliesTime.recordSince(start);
+
+    VoteKind myVote = null;
+    if (users.isUserLoggedIn()) {
+      start = System.nanoTime();
+      myVote = voteStore.getVotes(users.getCurrentUser().getUserId(),
+          Collections.singletonList(commentId)).get(commentId);
+      myVotesTime.recordSince(start);
+    }
+
+    Translator.Result localized = null;
+    if (lang != null) {
+      Map<Long, Translator.Result> translated = localize(Collections.singletonList(comment), lang);
+      localized = translated == null ? null : translated.get(commentId);
+    }
 
     res.setContentType("application/json");
+    res.setCharacterEncoding("UTF-8");
+    res.setHeader("Cache-Control", "no-cache");
     res.setStatus(200);
-    res.getWriter().print(root.toString());
+
+    JsonWriter out = new JsonWriter(res.getWriter());
+    CommentPageWriter.writeComment(out, comment, tallies.get(commentId), myVote, localized);
+    out.flush();
+  }
+
+  /**
+   * Translates comments into a viewer's language, leaving out comments which are already in it.
+   *
+   * @return The translations, keyed by comment ID, or null if the translator failed.
+   */
+  private static Map<Long, Translator.Result> localize(Iterable<Entity> comments, String lang) {
+    Map<Long, String> contents = new LinkedHashMap<>();
+    for (Entity comment : comments) {
+      contents.put(comment.getKey().getId(), CommentBodies.get(comment, "content"));
+    }
+
+    Map<Long, Translator.Result> localized;
+    try {
+      localized = translations.translate(contents, lang);
+    } catch (RuntimeException e) {
+      // the Cloud Translation client reports every failure with an unchecked exception
+      return null;
+    }
+
+    localized.values().removeIf(result -> lang.equals(result.sourceLanguage));
+    return localized;
   }
 
   /**
    * This route expects multipart form data, not url-encoded form data.
+   *
+   * Comments which are near-duplicates of one recently posted to this instance are rejected with a
+   * 409, before anything is stored or translated. See {@link NearDuplicateIndex}.
    */
   @Override
   protected void doPost(HttpServletRequest req, HttpServletResponse res)
       throws ServletException, IOException {
+    if (req.getPathInfo() != null) {
+      res.setStatus(405);
+      return;
+    }
+
     Part namePart, contentPart;
 
     try {
@@ -142,11 +397,14 @@ public class CommentServlet extends HttpServlet {
       return;
     }
 
-    // truncate usernames at 1000 bytes
-    String name = readPartToString(namePart, 1000);
+    // the decoder checks for HTML while it reads, so the text is only scanned once
+    BoundedUtf8Decoder decoder = BoundedUtf8Decoder.get();
 
-    // truncate comments at 50000 bytes
-    String content = readPartToString(contentPart, 50000);
+    // truncate usernames at 1000 bytes
+    String name;
+    try (InputStream src = namePart.getInputStream()) {
+      name = decoder.decode(src, 1000);
+    }
 
     if (name.length() == 0) {
       res.setStatus(400);
@@ -154,56 +412,57 @@ public class CommentServlet extends HttpServlet {
       return;
     }
 
+    boolean shameful = decoder.isHtml();
+
+    // truncate comments at 50000 bytes
+    String content;
+    try (InputStream src = contentPart.getInputStream()) {
+      content = decoder.decode(src, 50000);
+    }
+
     if (content.length() == 0) {
       res.setStatus(400);
       res.getWriter().print("content");
       return;
     }
 
+    shameful |= decoder.isHtml();
+
+    NearDuplicateIndex.Signature signature = NearDuplicateIndex.sign(content);
+    if (signature != null && recentComments.checkAndAdd(signature)) {
+      res.setStatus(409);
+      res.getWriter().print("duplicate");
+      return;
+    }
+
     Entity comment = new Entity("Comment");
     comment.setProperty("timestamp", new Date());
     comment.setProperty("user", users.isUserLoggedIn() ? users.getCurrentUser().getUserId() : null);
     comment.setProperty("name", name);
+    CommentRanking.initialize(comment);
+    CommentSummary.initialize(comment, content);
 
+    // translation happens in the background so that posting does not wait on Cloud Translate
+    comment.setProperty("translationPending", true);
+    CommentBodies.set(comment, "content", content);
+    comment.setProperty("shameful", shameful);
+    long start = System.nanoTime();
     try {
-      Translation translation = translate.translate(content, TranslateOption.targetLanguage("en"),
-          TranslateOption.model("nmt"));
-
-      if (!translation.getSourceLanguage().equalsIgnoreCase("en")) {
-        comment.setUnindexedProperty("contentTranslated",
-            new Text(translation.getTranslatedText()));
-        comment.setProperty("contentLang", translation.getSourceLanguage());
+      datastore.put(comment);
+    } catch (RuntimeException e) {
+      // the comment was not posted, so trying again must not be turned away as a duplicate
+      if (signature != null) {
+        recentComments.remove(signature);
       }
-    } catch (Throwable e) {
-      // this is so that the server does not crash in dev mode
-      comment.setUnindexedProperty("contentTranslated", new Text("translated content"));
-      comment.setProperty("contentLang", "es");
+      throw e;
     }
+    putTime.recordSince(start);
 
-    comment.setUnindexedProperty("content", new Text(content));
-    comment.setProperty("shameful",
-        htmlDetector.matcher(name).matches() || htmlDetector.matcher(content).matches());
-    comment.setProperty("upvotes", 0);
-    comment.setProperty("downvotes", 0);
-    datastore.put(comment);
+    versions.pagesChanged();
+    frontPage.schedule();
+    index.add(comment.getKey().getId(), content, null);
+    TranslationQueue.schedule();
 
     res.setStatus(200);
   }
-
-  private static String readPartToString(Part part, int limit) throws IOException {
-    InputStream src = part.getInputStream();
-    ByteArrayOutputStream dst = new ByteArrayOutputStream();
-    byte[] block = new byte[1024];
-
-    while (dst.size() < limit) {
-      int bytesRead = src.read(block, 0, Math.min(block.length, limit - dst.size()));
-      if (bytesRead < 0)
-        break;
-      dst.write(block, 0, bytesRead);
-    }
-
-    dst.flush();
-    byte[] buf = dst.toByteArray();
-    return new String(buf, StandardCharsets.UTF_8);
-  }
 }
@@ -0,0 +1,27 @@
+package com.google.sps.servlets.comments;
+
+import javax.servlet.http.HttpServletRequest;
+
+/** Helpers for conditional requests. */
+class ETags {
+  private ETags() {}
+
+  /**
+   * Returns whether the request's {@code If-None-Match} header includes the given entity tag,
+   * meaning that the client already has the current response.
+   */
+  static boolean isNotModified(HttpServletRequest req, String etag) {
+    String header = req.getHeader("If-None-Match");
+    if (header == null) {
+      return false;
+    }
+
+    for (String candidate : header.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
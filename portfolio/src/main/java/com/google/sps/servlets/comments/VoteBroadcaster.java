@@ -0,0 +1,193 @@
+package com.google.sps.servlets.comments;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import com.google.gson.JsonObject;
+import com.google.sps.data.VoteCounter.Tally;
+import com.google.sps.stats.Stats;
+
+/**
+ * Pushes vote count changes to clients connected to {@link VoteStreamServlet}. Changes are not
+ * sent right away; they are collected and sent together every {@link #FLUSH_INTERVAL_MS}, and if
+ * a comment's count changes several times in that window only the latest count is sent.
+ *
+ * Connections are held as {@link AsyncContext}s, so idle clients do not hold a thread. Only votes
+ * handled by this instance are pushed.
+ *
+ * Writes are non-blocking, so a slow client cannot hold up the others. Output that a client's
+ * connection is not ready for is kept until it is, up to {@link #MAX_BACKLOG} bytes, after which
+ * the client is dropped and left to reconnect.
+ */
+class VoteBroadcaster {
+  private static final long FLUSH_INTERVAL_MS = 250;
+  private static final long HEARTBEAT_INTERVAL_MS = 15000;
+
+  /** The most output kept for a client that is not keeping up. */
+  private static final int MAX_BACKLOG = 64 * 1024;
+
+  /** The maximum number of clients connected to one instance. */
+  static final int MAX_CLIENTS = 5000;
+
+  private static final VoteBroadcaster instance = new VoteBroadcaster();
+
+  private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+  private final Map<Long, Tally> pending = new ConcurrentHashMap<>();
+  private ScheduledExecutorService executor;
+
+  static VoteBroadcaster getInstance() {
+    return instance;
+  }
+
+  static {
+    Stats.register("vote_stream_clients", instance::getClientCount);
+  }
+
+  boolean hasClients() {
+    return !clients.isEmpty();
+  }
+
+  int getClientCount() {
+    return clients.size();
+  }
+
+  /**
+   * Adds a client, and switches its response to non-blocking output.
+   *
+   * @param context The client's async context. Its response should already have its headers set.
+   * @param out The response's output stream.
+   * @return The client, or null if this instance already has too many clients.
+   */
+  Client subscribe(AsyncContext context, ServletOutputStream out) {
+    if (clients.size() >= MAX_CLIENTS) {
+      return null;
+    }
+
+    start();
+    Client client = new Client(context, out);
+    clients.add(client);
+    out.setWriteListener(client);
+    return client;
+  }
+
+  void unsubscribe(Client client) {
+    clients.remove(client);
+  }
+
+  /** Queues a comment's new vote counts to be sent to every client. */
+  void publish(long commentId, Tally tally) {
+    if (hasClients()) {
+      pending.put(commentId, tally);
+    }
+  }
+
+  private synchronized void start() {
+    if (executor != null) {
+      return;
+    }
+
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "vote-broadcaster");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS,
+        TimeUnit.MILLISECONDS);
+    executor.scheduleWithFixedDelay(() -> send(": heartbeat\n\n"), HEARTBEAT_INTERVAL_MS,
+        HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  private void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    StringBuilder events = new StringBuilder();
+    for (Long commentId : pending.keySet()) {
+      Tally tally = pending.remove(commentId);
+
+      JsonObject event = new JsonObject();
+      event.addProperty("id", commentId);
+      event.addProperty("upvotes", tally.upvotes);
+      event.addProperty("downvotes", tally.downvotes);
+      events.append("data: ").append(event.toString()).append("\n\n");
+    }
+
+    send(events.toString());
+  }
+
+  /** Writes the same text to every client, without waiting for any of them. */
+  private void send(String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    for (Client client : clients) {
+      client.send(bytes);
+    }
+  }
+
+  /** A connected client, which writes to its connection whenever the container says it can. */
+  class Client implements WriteListener {
+    private final AsyncContext context;
+    private final ServletOutputStream out;
+    private final ByteArrayOutputStream backlog = new ByteArrayOutputStream();
+
+    Client(AsyncContext context, ServletOutputStream out) {
+      this.context = context;
+      this.out = out;
+    }
+
+    /** Writes to the connection if it is ready, and otherwise adds to the backlog. */
+    synchronized void send(byte[] bytes) {
+      if (backlog.size() + bytes.length > MAX_BACKLOG) {
+        close();
+        return;
+      }
+
+      backlog.write(bytes, 0, bytes.length);
+      onWritePossible();
+    }
+
+    @Override
+    public synchronized void onWritePossible() {
+      try {
+        // isReady() registers for another call to this once the connection can take more
+        if (backlog.size() == 0 || !out.isReady()) {
+          return;
+        }
+
+        // the container buffers whatever the connection cannot take yet
+        out.write(backlog.toByteArray());
+        backlog.reset();
+
+        if (out.isReady()) {
+          out.flush();
+        }
+      } catch (IOException | IllegalStateException e) {
+        close();
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      close();
+    }
+
+    /** Drops the client, which will reconnect if it is still there. */
+    void close() {
+      clients.remove(this);
+      try {
+        context.complete();
+      } catch (IllegalStateException ignored) {
+        // the container already completed it
+      }
+    }
+  }
+}
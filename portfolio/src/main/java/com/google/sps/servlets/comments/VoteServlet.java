@@ -15,6 +15,14 @@
 package com.google.sps.servlets.comments;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.annotation.WebServlet;
@@ -24,26 +32,46 @@ import javax.servlet.http.HttpServletResponse;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
-import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import com.google.sps.data.CommentRanking;
+import com.google.sps.data.FrontPage;
+import com.google.sps.data.Versions;
+import com.google.sps.data.VoteCounter;
+import com.google.sps.data.VoteCounter.Tally;
+import com.google.sps.data.VoteStore;
+import com.google.sps.stats.Histogram;
+import com.google.sps.stats.Metrics;
 
 /**
  * Serlvet that allows user to vote on comments. Last segment of path should be the comment ID.
+ * Vote counts for several comments can be fetched at once with {@code GET /api/vote?ids=1,2,3}.
  */
 @WebServlet("/api/vote/*")
 @MultipartConfig
 public class VoteServlet extends HttpServlet {
+  /**
+   * The maximum number of comments in a batch request. Each comment needs one key for itself and
+   * one for each counter shard, and a batch get is limited to 1000 keys.
+   */
+  private static final int MAX_BATCH_SIZE = 50;
+
   private static Gson gson = new Gson();
   private static UserService users = UserServiceFactory.getUserService();
   private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static Versions versions = Versions.getInstance();
+  private static VoteBroadcaster broadcaster = VoteBroadcaster.getInstance();
+  private static VoteStore voteStore = new VoteStore(datastore, new VoteCounter(datastore));
+  private static CommentRanking ranking = new CommentRanking(datastore);
+  private static FrontPage frontPage = FrontPage.getInstance();
+
+  private static Histogram castTime =
+      Metrics.histogram("datastore_call_duration_seconds", "operation", "vote_cast");
+  private static Histogram talliesTime =
+      Metrics.histogram("datastore_call_duration_seconds", "operation", "tallies_get");
 
   public static class VotePostInfo {
     public final VoteKind kind;
@@ -55,23 +83,43 @@ public class VoteServlet extends HttpServlet {
 
   protected void doGet(HttpServletRequest req, HttpServletResponse res)
       throws ServletException, IOException {
+    if (req.getPathInfo() == null || req.getPathInfo().equals("/")) {
+      doGetBatch(req, res);
+      return;
+    }
+
     long commentId;
-    Entity commentEnt;
     try {
       // skip leading forward slash
       commentId = Long.parseLong(req.getPathInfo().substring(1));
-      commentEnt = datastore.get(KeyFactory.createKey("Comment", commentId));
     } catch (NumberFormatException e) {
       res.setStatus(404);
       return;
-    } catch (EntityNotFoundException e) {
+    }
+
+    Long version = versions.getCommentVersion(commentId);
+    String etag = version == null ? null : "\"v" + version + "\"";
+
+    if (etag != null && ETags.isNotModified(req, etag)) {
+      res.setStatus(304);
+      return;
+    }
+
+    Tally tally = readTally(commentId);
+    if (tally == null) {
       res.setStatus(404);
       return;
     }
 
+    // clients may cache counts, but must check that they are still current
+    res.setHeader("Cache-Control", "no-cache");
+    if (etag != null) {
+      res.setHeader("ETag", etag);
+    }
+
     JsonObject root = new JsonObject();
-    root.addProperty("upvotes", (long) commentEnt.getProperty("upvotes"));
-    root.addProperty("downvotes", (long) commentEnt.getProperty("downvotes"));
+    root.addProperty("upvotes", tally.upvotes);
+    root.addProperty("downvotes", tally.downvotes);
 
     res.setContentType("application/json");
     res.getWriter().write(root.toString());
@@ -106,55 +154,128 @@ public class VoteServlet extends HttpServlet {
       return;
     }
 
-    Entity commentEnt;
+    long start = System.nanoTime();
+    VoteStore.Result result = voteStore.cast(commentId, userId, info.kind);
+    castTime.recordSince(start);
+
+    switch (result) {
+      case NOT_FOUND:
+        res.setStatus(404);
+        return;
+      case RECORDED:
+        versions.commentChanged(commentId);
+        frontPage.schedule();
+        ranking.schedule(commentId);
+
+        // the tally is only needed for streaming, so it is not read while nobody is listening
+        if (broadcaster.hasClients()) {
+          Tally tally = readTally(commentId);
+          if (tally != null) {
+            broadcaster.publish(commentId, tally);
+          }
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Returns the vote counts of several comments, given as {@code ?ids=1,2,3}. The response is a
+   * JSON object mapping each comment ID to its counts; comments which do not exist are left out.
+   */
+  private void doGetBatch(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    String idsParam = req.getParameter("ids");
+    if (idsParam == null) {
+      res.setStatus(400);
+      return;
+    }
+
+    Set<Long> commentIds = new TreeSet<>();
     try {
-      commentEnt = datastore.get(KeyFactory.createKey("Comment", commentId));
-    } catch (EntityNotFoundException e) {
-      res.setStatus(404);
+      for (String id : idsParam.split(",")) {
+        if (!id.isEmpty()) {
+          commentIds.add(Long.parseLong(id));
+        }
+      }
+    } catch (NumberFormatException e) {
+      res.setStatus(400);
       return;
     }
 
-    Query q = new Query("Vote").setFilter(CompositeFilterOperator.and(
-        new Query.FilterPredicate("commentId", FilterOperator.EQUAL, commentId),
-        new Query.FilterPredicate("userId", FilterOperator.EQUAL, userId)));
-    PreparedQuery pq = datastore.prepare(q);
+    if (commentIds.isEmpty() || commentIds.size() > MAX_BATCH_SIZE) {
+      res.setStatus(400);
+      return;
+    }
 
-    Entity voteEnt = pq.asSingleEntity();
+    // the tag covers every comment's version, so any vote on any of them changes it
+    Map<Long, Long> commentVersions = versions.getCommentVersions(commentIds);
+    String etag = null;
+    if (commentVersions.size() == commentIds.size()) {
+      long hash = 1;
+      for (long commentId : commentIds) {
+        hash = 31 * (31 * hash + commentId) + commentVersions.get(commentId);
+      }
+      etag = "\"b" + Long.toHexString(hash) + "\"";
 
+      if (ETags.isNotModified(req, etag)) {
+        res.setStatus(304);
+        return;
+      }
+    }
 
-    if (voteEnt == null) {
-      // we are committing a new vote
-      voteEnt = new Entity("Vote");
-      voteEnt.setIndexedProperty("commentId", commentId);
-      voteEnt.setIndexedProperty("userId", userId);
-    } else {
-      // we are changing an existing vote, remove the old one
-      switch (VoteKind.valueOf((String) voteEnt.getProperty("kind"))) {
-        case DOWN:
-          commentEnt.setProperty("downvotes", (long) commentEnt.getProperty("downvotes") - 1);
-          break;
-        case UP:
-          commentEnt.setProperty("upvotes", (long) commentEnt.getProperty("upvotes") - 1);
-          break;
-        default:
-          break;
+    Map<Long, Tally> tallies = readTallies(commentIds);
 
-      }
+    res.setHeader("Cache-Control", "no-cache");
+    if (etag != null) {
+      res.setHeader("ETag", etag);
     }
 
-    switch (info.kind) {
-      case DOWN:
-        commentEnt.setProperty("downvotes", (long) commentEnt.getProperty("downvotes") + 1);
-        break;
-      case UP:
-        commentEnt.setProperty("upvotes", (long) commentEnt.getProperty("upvotes") + 1);
-        break;
-      default:
-        break;
+    JsonObject root = new JsonObject();
+    tallies.forEach((commentId, tally) -> {
+      JsonObject counts = new JsonObject();
+      counts.addProperty("upvotes", tally.upvotes);
+      counts.addProperty("downvotes", tally.downvotes);
+      root.add(commentId.toString(), counts);
+    });
+
+    res.setContentType("application/json");
+    res.getWriter().write(root.toString());
+  }
+
+  /**
+   * Reads a comment's vote counts.
+   *
+   * @return The counts, or null if the comment does not exist.
+   */
+  private static Tally readTally(long commentId) {
+    return readTallies(Collections.singleton(commentId)).get(commentId);
+  }
+
+  /**
+   * Reads the vote counts of several comments, fetching the comments and all of their counter
+   * shards in one round trip.
+   *
+   * @return A map from comment ID to counts, without the comments which do not exist.
+   */
+  private static Map<Long, Tally> readTallies(Collection<Long> commentIds) {
+    List<Key> keys = new ArrayList<>();
+    for (long commentId : commentIds) {
+      keys.add(VoteStore.commentKey(commentId));
+      keys.addAll(VoteCounter.shardKeys(commentId));
     }
 
-    voteEnt.setIndexedProperty("kind", info.kind.toString());
-    datastore.put(voteEnt);
-    datastore.put(commentEnt);
+    long start = System.nanoTime();
+    Map<Key, Entity> entities = datastore.get(keys);
+    talliesTime.recordSince(start);
+
+    Map<Long, Tally> tallies = new LinkedHashMap<>();
+    for (long commentId : commentIds) {
+      Entity commentEnt = entities.get(VoteStore.commentKey(commentId));
+      if (commentEnt != null) {
+        tallies.put(commentId, VoteCounter.sum(commentEnt, entities));
+      }
+    }
+    return tallies;
   }
 }
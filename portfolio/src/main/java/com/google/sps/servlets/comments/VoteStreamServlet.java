@@ -0,0 +1,90 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.comments;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that streams vote count changes as server-sent events. Each event's data is a JSON
+ * object with the comment's {@code id}, {@code upvotes} and {@code downvotes}.
+ *
+ * Events are only delivered on a runtime that streams responses and serves requests concurrently.
+ * The java8 runtime buffers responses, and with {@code threadsafe} off an open stream occupies an
+ * instance, so the client does not subscribe by default.
+ */
+@WebServlet(urlPatterns = "/api/vote/stream", asyncSupported = true)
+public class VoteStreamServlet extends HttpServlet {
+  /** Clients are disconnected after this long and are expected to reconnect. */
+  private static final long TIMEOUT_MS = 10 * 60 * 1000;
+
+  private static VoteBroadcaster broadcaster = VoteBroadcaster.getInstance();
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    if (broadcaster.getClientCount() >= VoteBroadcaster.MAX_CLIENTS) {
+      res.setStatus(503);
+      return;
+    }
+
+    res.setStatus(200);
+    res.setContentType("text/event-stream");
+    res.setCharacterEncoding("UTF-8");
+    res.setHeader("Cache-Control", "no-cache");
+
+    // tell the client how long to wait before reconnecting, and send the headers now
+    ServletOutputStream out = res.getOutputStream();
+    out.write("retry: 5000\n\n".getBytes(StandardCharsets.UTF_8));
+    res.flushBuffer();
+
+    AsyncContext context = req.startAsync();
+    context.setTimeout(TIMEOUT_MS);
+
+    VoteBroadcaster.Client client = broadcaster.subscribe(context, out);
+    if (client == null) {
+      context.complete();
+      return;
+    }
+
+    context.addListener(new AsyncListener() {
+      @Override
+      public void onComplete(AsyncEvent event) {
+        broadcaster.unsubscribe(client);
+      }
+
+      @Override
+      public void onTimeout(AsyncEvent event) {
+        broadcaster.unsubscribe(client);
+        context.complete();
+      }
+
+      @Override
+      public void onError(AsyncEvent event) {
+        broadcaster.unsubscribe(client);
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) {}
+    });
+  }
+}
@@ -0,0 +1,359 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.tasks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.CommentBodies;
+import com.google.sps.data.CommentRanking;
+import com.google.sps.data.CommentSummary;
+import com.google.sps.data.FrontPage;
+import com.google.sps.data.Versions;
+import com.google.sps.data.VoteCounter;
+import com.google.sps.data.VoteCounter.Tally;
+import com.google.sps.data.VoteStore;
+import com.google.sps.servlets.comments.VoteKind;
+
+/**
+ * Task queue worker that brings comments stored by older versions of the app up to date, one batch
+ * at a time. For each comment, it:
+ *
+ * <ul>
+ *   <li>compresses long bodies that were stored as plain text (see {@link CommentBodies});
+ *   <li>adds the properties that summary pages are projected from (see {@link CommentSummary});
+ *   <li>adds the ranking properties that the "top" and "hot" orderings sort by (see
+ *       {@link CommentRanking}); and
+ *   <li>moves the {@code upvotes} and {@code downvotes} counts kept on comments from before votes
+ *       were sharded into counter shards (see {@link VoteCounter}), since summary pages do not
+ *       read them.
+ * </ul>
+ *
+ * Once every comment is done, it records that summary pages can be projected (see
+ * {@link CommentSummary#isBackfilled}). Then it moves votes stored as root {@code Vote} entities,
+ * with {@code commentId} and {@code userId} properties, to their place under the comment (see
+ * {@link VoteStore}). A user who has voted again since then has two votes counted, so their old one
+ * is deleted and taken out of the tally instead.
+ *
+ * Each task handles one batch and schedules the next, passing along the query cursor. An admin
+ * starts the job by sending a POST to {@link #WORKER_URL}. Running it again is harmless, because
+ * comments that are already up to date are not written.
+ */
+@WebServlet(CommentBackfillTaskServlet.WORKER_URL)
+public class CommentBackfillTaskServlet extends HttpServlet {
+  public static final String WORKER_URL = "/api/tasks/backfill-comments";
+
+  /** The number of comments handled by one task. */
+  private static final int BATCH_SIZE = 100;
+
+  /** Comments are updated in cross-group transactions, which are limited to 25 entity groups. */
+  private static final int TRANSACTION_SIZE = 25;
+
+  private static final int MAX_ATTEMPTS = 5;
+
+  /** The {@code phase} parameter of tasks which migrate legacy votes. */
+  private static final String PHASE_VOTES = "votes";
+
+  private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static UserService users = UserServiceFactory.getUserService();
+  private static VoteCounter votes = new VoteCounter(datastore);
+
+  @Override
+  protected void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    // App Engine strips this header from external requests, so only the task queue can call this
+    if (req.getHeader("X-AppEngine-QueueName") == null) {
+      if (users.isUserLoggedIn() && users.isUserAdmin()) {
+        // an admin is starting the job from the beginning
+        QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(WORKER_URL));
+        res.setStatus(202);
+      } else {
+        res.setStatus(403);
+      }
+      return;
+    }
+
+    if (PHASE_VOTES.equals(req.getParameter("phase"))) {
+      migrateVotes(req.getParameter("cursor"));
+      res.setStatus(200);
+      return;
+    }
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    if (req.getParameter("cursor") != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(req.getParameter("cursor")));
+    }
+
+    QueryResultList<Entity> batch = datastore.prepare(new Query("Comment").setKeysOnly())
+        .asQueryResultList(fetchOptions);
+
+    List<Key> keys = new ArrayList<>(batch.size());
+    for (Entity comment : batch) {
+      keys.add(comment.getKey());
+    }
+
+    int updated = 0;
+    List<Key> legacyTallies = new ArrayList<>();
+    for (int i = 0; i < keys.size(); i += TRANSACTION_SIZE) {
+      updated += update(keys.subList(i, Math.min(i + TRANSACTION_SIZE, keys.size())),
+          legacyTallies);
+    }
+
+    for (Key key : legacyTallies) {
+      if (moveTally(key)) {
+        updated++;
+      }
+    }
+
+    if (updated > 0) {
+      // summary pages and orderings may include comments they left out before
+      Versions.getInstance().pagesChanged();
+      FrontPage.getInstance().schedule();
+    }
+
+    if (batch.size() == BATCH_SIZE) {
+      QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(WORKER_URL)
+          .param("cursor", batch.getCursor().toWebSafeString()));
+    } else {
+      CommentSummary.markBackfilled();
+      QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(WORKER_URL)
+          .param("phase", PHASE_VOTES));
+    }
+
+    res.setStatus(200);
+  }
+
+  /** Migrates one batch of legacy votes, and schedules the next batch if there may be more. */
+  private static void migrateVotes(String cursor) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+
+    // only legacy votes have a commentId property, so keyed votes are not returned
+    Query query = new Query("Vote")
+        .setFilter(new Query.FilterPredicate("commentId", FilterOperator.GREATER_THAN, 0L))
+        .setKeysOnly();
+    QueryResultList<Entity> batch = datastore.prepare(query).asQueryResultList(fetchOptions);
+
+    boolean changed = false;
+    for (Entity vote : batch) {
+      changed |= migrateVote(vote.getKey());
+    }
+
+    if (changed) {
+      Versions.getInstance().pagesChanged();
+    }
+
+    if (batch.size() == BATCH_SIZE) {
+      QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(WORKER_URL)
+          .param("phase", PHASE_VOTES)
+          .param("cursor", batch.getCursor().toWebSafeString()));
+    }
+  }
+
+  /**
+   * Moves one legacy vote under its comment, in a transaction with the comment's keyed vote, so a
+   * vote cast at the same time cannot be lost or counted twice. If the transaction keeps failing,
+   * the exception propagates and the task queue retries the batch later.
+   *
+   * @return Whether the vote was migrated, or false if it had already been.
+   */
+  private static boolean migrateVote(Key legacyKey) {
+    for (int attempt = 0; ; attempt++) {
+      // the legacy vote, the keyed vote and a counter shard are three entity groups
+      Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+
+      try {
+        Entity legacy;
+        try {
+          legacy = datastore.get(txn, legacyKey);
+        } catch (EntityNotFoundException e) {
+          return false;
+        }
+
+        long commentId = (long) legacy.getProperty("commentId");
+        String userId = (String) legacy.getProperty("userId");
+        VoteKind kind = VoteKind.valueOf((String) legacy.getProperty("kind"));
+        Key commentKey = VoteStore.commentKey(commentId);
+        Key voteKey = VoteStore.voteKey(commentId, userId);
+        Map<Key, Entity> found = datastore.get(txn, Arrays.asList(commentKey, voteKey));
+
+        if (found.containsKey(voteKey)) {
+          // the user voted again since votes were keyed, and both votes are counted
+          votes.increment(txn, commentId, kind, -1);
+        } else if (found.containsKey(commentKey)) {
+          Entity vote = new Entity(voteKey);
+          vote.setUnindexedProperty("kind", kind.toString());
+          datastore.put(txn, vote);
+        }
+
+        datastore.delete(txn, legacyKey);
+        txn.commit();
+        return true;
+      } catch (ConcurrentModificationException e) {
+        if (attempt + 1 >= MAX_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Moves the vote counts kept on a comment from before votes were sharded into counter shards, in
+   * a transaction with the comment, so that the tally is the same before and after. Votes are
+   * children of the comment, so a vote cast at the same time conflicts with the transaction. If
+   * the transaction keeps failing, the exception propagates and the task queue retries the batch.
+   *
+   * @return Whether the counts were moved, or false if they had already been.
+   */
+  private static boolean moveTally(Key commentKey) {
+    for (int attempt = 0; ; attempt++) {
+      // the comment and a shard of each counter are three entity groups
+      Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+
+      try {
+        Entity comment;
+        try {
+          comment = datastore.get(txn, commentKey);
+        } catch (EntityNotFoundException e) {
+          return false;
+        }
+
+        if (!comment.hasProperty("upvotes") && !comment.hasProperty("downvotes")) {
+          return false;
+        }
+
+        long upvotes = getCount(comment, "upvotes");
+        long downvotes = getCount(comment, "downvotes");
+        if (upvotes != 0) {
+          votes.increment(txn, commentKey.getId(), VoteKind.UP, upvotes);
+        }
+        if (downvotes != 0) {
+          votes.increment(txn, commentKey.getId(), VoteKind.DOWN, downvotes);
+        }
+
+        comment.removeProperty("upvotes");
+        comment.removeProperty("downvotes");
+        datastore.put(txn, comment);
+        txn.commit();
+        return true;
+      } catch (ConcurrentModificationException e) {
+        if (attempt + 1 >= MAX_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+  }
+
+  private static long getCount(Entity comment, String property) {
+    Object value = comment.getProperty(property);
+    return value == null ? 0 : (long) value;
+  }
+
+  /**
+   * Brings a group of comments up to date in one transaction. If the transaction fails, the
+   * exception propagates and the task queue retries the whole batch later.
+   *
+   * @param legacyTallies Receives the keys of comments which still have vote counts from before
+   *     votes were sharded. These are moved separately, since the shards would take the
+   *     transaction over its limit of entity groups.
+   * @return The number of comments that were changed.
+   */
+  private static int update(List<Key> keys, List<Key> legacyTallies) {
+    Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+
+    try {
+      Map<Key, Entity> comments = datastore.get(txn, keys);
+      Map<Long, Tally> tallies = null;
+      List<Entity> changed = new ArrayList<>();
+
+      for (Entity comment : comments.values()) {
+        boolean dirty = CommentBodies.migrate(comment, "content");
+        dirty |= CommentBodies.migrate(comment, "contentTranslated");
+
+        if (!comment.hasProperty("preview")) {
+          CommentSummary.initialize(comment, CommentBodies.get(comment, "content"));
+          if (comment.hasProperty("contentLang")) {
+            comment.setProperty("translatedFrom", comment.getProperty("contentLang"));
+          }
+          dirty = true;
+        }
+
+        if (!comment.hasProperty("score")) {
+          if (tallies == null) {
+            // the shards are not read in the transaction, since they are separate entity groups
+            tallies = votes.getTallies(comments.values());
+          }
+
+          Tally tally = tallies.get(comment.getKey().getId());
+          comment.setProperty("score", CommentRanking.score(tally.upvotes, tally.downvotes));
+          comment.setProperty("hotness", CommentRanking.hotness(tally.upvotes, tally.downvotes,
+              (Date) comment.getProperty("timestamp")));
+          dirty = true;
+        }
+
+        if (dirty) {
+          changed.add(comment);
+        }
+
+        if (comment.hasProperty("upvotes") || comment.hasProperty("downvotes")) {
+          legacyTallies.add(comment.getKey());
+        }
+      }
+
+      if (!changed.isEmpty()) {
+        datastore.put(txn, changed);
+      }
+      txn.commit();
+      return changed.size();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.tasks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.CommentPageWriter;
+import com.google.sps.data.CommentSummary;
+import com.google.sps.data.FrontPage;
+import com.google.sps.data.Versions;
+import com.google.sps.data.VoteCounter;
+import com.google.sps.data.VoteCounter.Tally;
+
+/**
+ * Task queue worker that renders the {@link FrontPage} snapshots, exactly as
+ * {@code /api/comments} would for a visitor who is not logged in.
+ */
+@WebServlet(FrontPage.WORKER_URL)
+public class FrontPageTaskServlet extends HttpServlet {
+  /** Larger pages are not stored, and are queried for each request instead. */
+  private static final int MAX_SNAPSHOT_CHARS = 256 * 1024;
+
+  private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static VoteCounter votes = new VoteCounter(datastore);
+
+  @Override
+  protected void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    // App Engine strips this header from external requests, so only the task queue can call this
+    if (req.getHeader("X-AppEngine-QueueName") == null) {
+      res.setStatus(403);
+      return;
+    }
+
+    // read the version before querying, so that a page which races with a write gets the old one
+    Long version = Versions.getInstance().getPageVersion();
+    if (version == null) {
+      // without a version, the snapshot could never be checked against writes
+      res.setStatus(200);
+      return;
+    }
+
+    render(false, version);
+    render(true, version);
+
+    // writes since the first rebuild schedule rebuilds of their own, so one follow-up is enough
+    if (req.getParameter("followUp") == null) {
+      FrontPage.getInstance().scheduleFollowUp();
+    }
+    res.setStatus(200);
+  }
+
+  /** Renders the full or summary front page, and stores it as the snapshot. */
+  private static void render(boolean summary, long version) throws IOException {
+    Query query = new Query("Comment").addSort("timestamp", SortDirection.DESCENDING);
+    if (summary && CommentSummary.isBackfilled()) {
+      CommentSummary.project(query);
+    }
+
+    QueryResultList<Entity> results =
+        datastore.prepare(query).asQueryResultList(FetchOptions.Builder.withLimit(FrontPage.SIZE));
+    Map<Long, Tally> tallies = votes.getTallies(results);
+    String nextCursor = results.getCursor().toWebSafeString();
+
+    StringWriter page = new StringWriter();
+    JsonWriter out = new JsonWriter(page);
+    if (summary) {
+      CommentPageWriter.writeSummaries(out, results, tallies, null, nextCursor);
+    } else {
+      CommentPageWriter.write(out, results, tallies, null, nextCursor);
+    }
+    out.flush();
+
+    String json = page.toString();
+    if (json.length() > MAX_SNAPSHOT_CHARS) {
+      json = null;
+    }
+    FrontPage.getInstance().put(summary, version, json);
+  }
+}
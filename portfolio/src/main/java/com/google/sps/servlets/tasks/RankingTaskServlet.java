@@ -0,0 +1,84 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.tasks;
+
+import java.io.IOException;
+import java.util.Collections;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.sps.data.CommentRanking;
+import com.google.sps.data.Versions;
+import com.google.sps.data.VoteCounter;
+import com.google.sps.data.VoteCounter.Tally;
+import com.google.sps.data.VoteStore;
+import com.google.sps.stats.Histogram;
+import com.google.sps.stats.Metrics;
+
+/**
+ * Task queue worker that updates a comment's ranking properties after votes on it, as scheduled by
+ * {@link CommentRanking#schedule}.
+ */
+@WebServlet(CommentRanking.WORKER_URL)
+public class RankingTaskServlet extends HttpServlet {
+  private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static VoteCounter votes = new VoteCounter(datastore);
+  private static CommentRanking ranking = new CommentRanking(datastore);
+
+  private static Histogram rankingTime =
+      Metrics.histogram("datastore_call_duration_seconds", "operation", "ranking_update");
+
+  @Override
+  protected void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    // App Engine strips this header from external requests, so only the task queue can call this
+    if (req.getHeader("X-AppEngine-QueueName") == null) {
+      res.setStatus(403);
+      return;
+    }
+
+    long commentId;
+    try {
+      commentId = Long.parseLong(req.getParameter("id"));
+    } catch (NumberFormatException e) {
+      res.setStatus(400);
+      return;
+    }
+
+    // the tally must be read after the version; see CommentRanking.update
+    Long version = Versions.getInstance().getCommentVersion(commentId);
+
+    Entity comment;
+    try {
+      comment = datastore.get(VoteStore.commentKey(commentId));
+    } catch (EntityNotFoundException e) {
+      // the comment was deleted
+      res.setStatus(200);
+      return;
+    }
+    Tally tally = votes.getTallies(Collections.singletonList(comment)).get(commentId);
+
+    long start = System.nanoTime();
+    boolean updated = ranking.update(commentId, tally, version);
+    rankingTime.recordSince(start);
+
+    // an error status makes the task queue retry the task later, when there may be less contention
+    res.setStatus(updated ? 200 : 503);
+  }
+}
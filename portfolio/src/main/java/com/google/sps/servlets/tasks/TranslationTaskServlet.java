@@ -0,0 +1,159 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.tasks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.data.CommentBodies;
+import com.google.sps.data.FrontPage;
+import com.google.sps.data.Versions;
+import com.google.sps.search.CommentIndex;
+import com.google.sps.translation.TranslationQueue;
+import com.google.sps.translation.Translator;
+import com.google.sps.translation.Translators;
+
+/**
+ * Task queue worker that translates comments which were stored with {@code translationPending} set.
+ * Comments are translated to English in batches, using one Translate call per batch.
+ */
+@WebServlet(TranslationQueue.WORKER_URL)
+public class TranslationTaskServlet extends HttpServlet {
+  /** The maximum number of comments translated by one task. */
+  private static final int TASK_LIMIT = 200;
+
+  /** The maximum number of comments sent to the Translate API in one call. */
+  private static final int BATCH_SIZE = 50;
+
+  /** The maximum number of characters sent to the Translate API in one call. */
+  private static final int BATCH_CHARS = 100000;
+
+  private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static Translator translator = Translators.getDefault();
+
+  @Override
+  protected void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    // App Engine strips this header from external requests, so only the task queue can call this
+    if (req.getHeader("X-AppEngine-QueueName") == null) {
+      res.setStatus(403);
+      return;
+    }
+
+    Query query = new Query("Comment")
+        .setFilter(new Query.FilterPredicate("translationPending", FilterOperator.EQUAL, true));
+    List<Entity> pending =
+        datastore.prepare(query).asList(FetchOptions.Builder.withLimit(TASK_LIMIT));
+
+    List<Entity> batch = new ArrayList<>();
+    int batchChars = 0;
+
+    for (Entity comment : pending) {
+      int chars = CommentBodies.get(comment, "content").length();
+
+      if (!batch.isEmpty()
+          && (batch.size() >= BATCH_SIZE || batchChars + chars > BATCH_CHARS)) {
+        translateBatch(batch);
+        batch.clear();
+        batchChars = 0;
+      }
+
+      batch.add(comment);
+      batchChars += chars;
+    }
+
+    if (!batch.isEmpty()) {
+      translateBatch(batch);
+    }
+
+    if (!pending.isEmpty()) {
+      // cached pages do not have the new translations
+      Versions.getInstance().pagesChanged();
+      FrontPage.getInstance().schedule();
+    }
+
+    if (pending.size() == TASK_LIMIT) {
+      // there may be more comments waiting
+      TranslationQueue.scheduleNow();
+    }
+
+    res.setStatus(200);
+  }
+
+  /**
+   * Translates a batch of comments and back-fills their translations. If the Translate call
+   * fails, the exception propagates and the task queue retries the task later.
+   */
+  private static void translateBatch(List<Entity> comments) {
+    List<String> texts = new ArrayList<>(comments.size());
+    for (Entity comment : comments) {
+      texts.add(CommentBodies.get(comment, "content"));
+    }
+
+    List<Translator.Result> results = translator.translate(texts, "en");
+
+    for (int i = 0; i < comments.size(); i++) {
+      store(comments.get(i), results.get(i));
+    }
+  }
+
+  /**
+   * Saves a translation onto its comment. The comment is re-read in a transaction so that changes
+   * made since the query ran are not overwritten.
+   */
+  private static void store(Entity queried, Translator.Result result) {
+    Transaction txn = datastore.beginTransaction();
+
+    try {
+      Entity comment = datastore.get(txn, queried.getKey());
+
+      if (!result.sourceLanguage.equalsIgnoreCase("en")) {
+        CommentBodies.set(comment, "contentTranslated", result.translatedText);
+        comment.setProperty("contentLang", result.sourceLanguage);
+        comment.setProperty("translatedFrom", result.sourceLanguage);
+      }
+
+      comment.removeProperty("translationPending");
+      datastore.put(txn, comment);
+      txn.commit();
+
+      if (comment.hasProperty("contentTranslated")) {
+        CommentIndex.getInstance().add(comment.getKey().getId(),
+            CommentBodies.get(comment, "content"), result.translatedText);
+      }
+    } catch (EntityNotFoundException e) {
+      // the comment was deleted while it was waiting
+    } catch (ConcurrentModificationException e) {
+      // the comment stays pending, so try again in the next window
+      TranslationQueue.schedule();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+}
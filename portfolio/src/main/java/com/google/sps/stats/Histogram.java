@@ -0,0 +1,85 @@
+package com.google.sps.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations, with buckets laid out like HdrHistogram's: every power of two
+ * microseconds is split into eight equal buckets, so any recorded value is within 12.5% of its
+ * bucket's bounds. Recording a value is one atomic increment and two adds to striped counters.
+ */
+public class Histogram {
+  /** The number of buckets per power of two, as a power of two. */
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** Durations are clamped to 2^MAX_EXPONENT microseconds, about 38 hours. */
+  private static final int MAX_EXPONENT = 37;
+
+  private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumNanos = new LongAdder();
+
+  /** Records a duration. */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+
+    counts.incrementAndGet(bucketOf(nanos / 1000));
+    count.increment();
+    sumNanos.add(nanos);
+  }
+
+  /** Records the time since {@code startNanos}, which was read from {@link System#nanoTime}. */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /** The number of durations recorded. */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /** The total of the durations recorded, in nanoseconds. */
+  public long getSumNanos() {
+    return sumNanos.sum();
+  }
+
+  /**
+   * Returns the number of durations recorded that were below a bound. Counts are read one bucket
+   * at a time without stopping writers, so a snapshot taken while values are recorded may be off
+   * by the values recorded meanwhile.
+   *
+   * @param micros The bound, which is exact if it is a power of two.
+   */
+  public long countBelow(long micros) {
+    int end = Math.min(bucketOf(micros), BUCKET_COUNT);
+    long total = 0;
+    for (int i = 0; i < end; i++) {
+      total += counts.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * Returns the bucket that a duration falls in. Durations below {@link #SUB_BUCKETS}
+   * microseconds have a bucket each; above that, the bucket is found from the position of the
+   * highest set bit and the {@link #SUB_BUCKET_BITS} bits below it.
+   */
+  private static int bucketOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+}
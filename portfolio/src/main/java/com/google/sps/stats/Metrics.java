@@ -0,0 +1,128 @@
+package com.google.sps.stats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of labelled histograms and counters, written out in the Prometheus text format along
+ * with the values in {@link Stats}. Look metrics up once and keep them, since looking one up
+ * builds its label string.
+ */
+public class Metrics {
+  /** Histograms are exported with a bucket for each power of two from 128µs to about 67s. */
+  private static final int MIN_EXPORTED_EXPONENT = 7;
+  private static final int MAX_EXPORTED_EXPONENT = 26;
+
+  /** Metric name, then label string, to histogram. */
+  private static final ConcurrentMap<String, ConcurrentMap<String, Histogram>> histograms =
+      new ConcurrentSkipListMap<>();
+
+  /** Metric name, then label string, to counter. */
+  private static final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> counters =
+      new ConcurrentSkipListMap<>();
+
+  private Metrics() {}
+
+  /**
+   * Returns the histogram with a name and labels, creating it if it does not exist.
+   *
+   * @param name A name in lower_snake_case, ending in the unit, such as {@code _seconds}.
+   * @param labels Alternating label names and values.
+   */
+  public static Histogram histogram(String name, String... labels) {
+    return histograms.computeIfAbsent(name, n -> new ConcurrentHashMap<>())
+        .computeIfAbsent(formatLabels(labels), l -> new Histogram());
+  }
+
+  /**
+   * Returns the counter with a name and labels, creating it if it does not exist.
+   *
+   * @param name A name in lower_snake_case, ending in {@code _total}.
+   * @param labels Alternating label names and values.
+   */
+  public static LongAdder counter(String name, String... labels) {
+    return counters.computeIfAbsent(name, n -> new ConcurrentHashMap<>())
+        .computeIfAbsent(formatLabels(labels), l -> new LongAdder());
+  }
+
+  /** Writes every metric, and every value in {@link Stats}, in the Prometheus text format. */
+  public static void write(Writer out) throws IOException {
+    for (Map.Entry<String, ConcurrentMap<String, Histogram>> family : histograms.entrySet()) {
+      String name = family.getKey();
+      out.write("# TYPE " + name + " histogram\n");
+
+      for (Map.Entry<String, Histogram> entry : family.getValue().entrySet()) {
+        String labels = entry.getKey();
+        Histogram histogram = entry.getValue();
+        String separator = labels.isEmpty() ? "" : ",";
+
+        // read the count first, so that the +Inf bucket is never below the finite buckets
+        long count = histogram.getCount();
+        long sumNanos = histogram.getSumNanos();
+
+        for (int exponent = MIN_EXPORTED_EXPONENT; exponent <= MAX_EXPORTED_EXPONENT; exponent++) {
+          long micros = 1L << exponent;
+          long below = Math.min(histogram.countBelow(micros), count);
+          out.write(name + "_bucket{" + labels + separator + "le=\"" + micros / 1e6 + "\"} "
+              + below + "\n");
+        }
+
+        out.write(name + "_bucket{" + labels + separator + "le=\"+Inf\"} " + count + "\n");
+        out.write(name + "_sum" + braced(labels) + " " + sumNanos / 1e9 + "\n");
+        out.write(name + "_count" + braced(labels) + " " + count + "\n");
+      }
+    }
+
+    for (Map.Entry<String, ConcurrentMap<String, LongAdder>> family : counters.entrySet()) {
+      String name = family.getKey();
+      out.write("# TYPE " + name + " counter\n");
+
+      for (Map.Entry<String, LongAdder> entry : family.getValue().entrySet()) {
+        out.write(name + braced(entry.getKey()) + " " + entry.getValue().sum() + "\n");
+      }
+    }
+
+    // stats mix counters and gauges, and do not say which they are
+    for (Map.Entry<String, Long> stat : Stats.snapshot().entrySet()) {
+      out.write("# TYPE " + stat.getKey() + " untyped\n");
+      out.write(stat.getKey() + " " + stat.getValue() + "\n");
+    }
+  }
+
+  private static String braced(String labels) {
+    return labels.isEmpty() ? "" : "{" + labels + "}";
+  }
+
+  private static String formatLabels(String... labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("labels must be name-value pairs");
+    }
+
+    StringBuilder formatted = new StringBuilder();
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        formatted.append(',');
+      }
+
+      formatted.append(labels[i]).append("=\"");
+      String value = labels[i + 1];
+      for (int j = 0; j < value.length(); j++) {
+        char c = value.charAt(j);
+        if (c == '\\' || c == '"') {
+          formatted.append('\\').append(c);
+        } else if (c == '\n') {
+          formatted.append("\\n");
+        } else {
+          formatted.append(c);
+        }
+      }
+      formatted.append('"');
+    }
+    return formatted.toString();
+  }
+}
@@ -0,0 +1,33 @@
+package com.google.sps.stats;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of named counters and gauges kept by this instance, such as cache hit counts. Values are
+ * read when a snapshot is taken, so registering a counter costs nothing on the hot path.
+ */
+public class Stats {
+  private static final Map<String, LongSupplier> sources = new ConcurrentHashMap<>();
+
+  private Stats() {}
+
+  /**
+   * Registers a value to be reported. Registering another value with the same name replaces it.
+   *
+   * @param name A name in lower_snake_case, prefixed with the component it belongs to.
+   */
+  public static void register(String name, LongSupplier source) {
+    sources.put(name, source);
+  }
+
+  /** Reads every registered value. */
+  public static SortedMap<String, Long> snapshot() {
+    SortedMap<String, Long> values = new TreeMap<>();
+    sources.forEach((name, source) -> values.put(name, source.getAsLong()));
+    return values;
+  }
+}
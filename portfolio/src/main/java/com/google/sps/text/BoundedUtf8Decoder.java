@@ -0,0 +1,107 @@
+package com.google.sps.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes UTF-8 text from a stream, reading at most a fixed number of bytes. Bytes are decoded
+ * straight into a reusable character buffer, and the decoded text is checked by an
+ * {@link HtmlDetector} as it goes, so the text is only copied once more, into the returned string.
+ *
+ * If the byte limit falls in the middle of a multi-byte character, the text is truncated before
+ * that character instead of ending with a replacement character.
+ *
+ * Decoders hold buffers and are not thread-safe; use {@link #get} to borrow the current thread's.
+ */
+public class BoundedUtf8Decoder {
+  private static final int BUFFER_SIZE = 4096;
+
+  private static final ThreadLocal<BoundedUtf8Decoder> pool =
+      ThreadLocal.withInitial(BoundedUtf8Decoder::new);
+
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+  private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+  private final StringBuilder text = new StringBuilder();
+  private final HtmlDetector htmlDetector = new HtmlDetector();
+
+  /** Returns the decoder belonging to the current thread. */
+  public static BoundedUtf8Decoder get() {
+    return pool.get();
+  }
+
+  /**
+   * Reads and decodes text from a stream. The stream is not closed.
+   *
+   * @param src The stream to read from.
+   * @param limit The maximum number of bytes to read.
+   * @return The decoded text.
+   */
+  public String decode(InputStream src, int limit) throws IOException {
+    text.setLength(0);
+    htmlDetector.reset();
+    decoder.reset();
+    bytes.clear();
+
+    int remaining = limit;
+    boolean endOfInput = false;
+
+    while (remaining > 0) {
+      int bytesRead = src.read(bytes.array(), bytes.position(),
+          Math.min(bytes.remaining(), remaining));
+      if (bytesRead < 0) {
+        endOfInput = true;
+        break;
+      }
+
+      bytes.position(bytes.position() + bytesRead);
+      remaining -= bytesRead;
+
+      bytes.flip();
+      drain(false);
+      bytes.compact();
+    }
+
+    bytes.flip();
+
+    if (endOfInput) {
+      // the text ended naturally, so any leftover bytes are malformed
+      drain(true);
+      chars.clear();
+      decoder.flush(chars);
+      append();
+    }
+
+    // otherwise, leftover bytes are the start of a character that was cut off by the limit
+
+    return text.toString();
+  }
+
+  /** Returns whether the last decoded text looks like HTML, according to {@link HtmlDetector}. */
+  public boolean isHtml() {
+    return htmlDetector.isHtml();
+  }
+
+  private void drain(boolean endOfInput) {
+    CoderResult result;
+    do {
+      chars.clear();
+      result = decoder.decode(bytes, chars, endOfInput);
+      append();
+    } while (result.isOverflow());
+  }
+
+  private void append() {
+    chars.flip();
+    htmlDetector.accept(chars.array(), 0, chars.limit());
+    text.append(chars.array(), 0, chars.limit());
+  }
+}
@@ -0,0 +1,200 @@
+package com.google.sps.text;
+
+/**
+ * Decides whether a string looks like HTML, in a single pass and without allocating. It accepts
+ * exactly the strings that the pattern
+ *
+ * <pre>{@code <\w+(\s*\w+\s*(=\s*['"].*['"]))*>.*<\/\w+>}</pre>
+ *
+ * matches in full (with {@code DOTALL}), but runs in linear time on any input, where the pattern
+ * can backtrack badly. Characters can be fed in as they are read, so that the check does not need
+ * its own pass over the text.
+ *
+ * The pattern reduces to two shapes, because {@code .*} absorbs any run of attributes after the
+ * first one:
+ *
+ * <ul>
+ *   <li>{@code <tag>...</tag>}, where the opening tag has no attributes, or
+ *   <li>{@code <tag attr = "...">...</tag>}, where the attribute value runs up to the first quote
+ *       that is immediately followed by {@code >}.
+ * </ul>
+ *
+ * Once the opening tag has been seen, the string only has to end with a closing tag that starts
+ * after it.
+ */
+public class HtmlDetector {
+  // states of the opening tag
+  private static final int START = 0;
+  private static final int TAG_NAME_START = 1;
+  private static final int TAG_NAME = 2;
+  private static final int AFTER_TAG_NAME = 3;
+  private static final int ATTR_NAME = 4;
+  private static final int AFTER_ATTR_NAME = 5;
+  private static final int AFTER_EQUALS = 6;
+  private static final int ATTR_VALUE = 7;
+  private static final int OPENED = 8;
+  private static final int FAILED = 9;
+
+  // states of the closing tag, which are only tracked once the opening tag is complete
+  private static final int CLOSE_NONE = 0;
+  private static final int CLOSE_LT = 1;
+  private static final int CLOSE_SLASH = 2;
+  private static final int CLOSE_NAME = 3;
+  private static final int CLOSED = 4;
+
+  private int state = START;
+  private int closeState = CLOSE_NONE;
+  private int tagNameLength;
+  private boolean previousWasQuote;
+
+  /** Returns whether the entire string is HTML according to this detector. */
+  public static boolean matches(CharSequence text) {
+    HtmlDetector detector = new HtmlDetector();
+    detector.accept(text, 0, text.length());
+    return detector.isHtml();
+  }
+
+  /** Returns whether the characters accepted so far look like HTML. */
+  public boolean isHtml() {
+    return state == OPENED && closeState == CLOSED;
+  }
+
+  /** Clears the detector so that it can be used for another string. */
+  public void reset() {
+    state = START;
+    closeState = CLOSE_NONE;
+    tagNameLength = 0;
+    previousWasQuote = false;
+  }
+
+  public void accept(CharSequence text, int start, int end) {
+    for (int i = start; i < end && state != FAILED; i++) {
+      accept(text.charAt(i));
+    }
+  }
+
+  public void accept(char[] buf, int off, int len) {
+    for (int i = off; i < off + len && state != FAILED; i++) {
+      accept(buf[i]);
+    }
+  }
+
+  public void accept(char c) {
+    switch (state) {
+      case START:
+        state = c == '<' ? TAG_NAME_START : FAILED;
+        break;
+
+      case TAG_NAME_START:
+        state = isWord(c) ? TAG_NAME : FAILED;
+        tagNameLength = 1;
+        break;
+
+      case TAG_NAME:
+        if (isWord(c)) {
+          tagNameLength++;
+        } else if (c == '>') {
+          state = OPENED;
+        } else if (isSpace(c)) {
+          state = AFTER_TAG_NAME;
+        } else if (c == '=' && tagNameLength >= 2) {
+          // the tag name doubles as the attribute name, as in <ab=""
+          state = AFTER_EQUALS;
+        } else {
+          state = FAILED;
+        }
+        break;
+
+      case AFTER_TAG_NAME:
+        if (isWord(c)) {
+          state = ATTR_NAME;
+        } else if (c == '=' && tagNameLength >= 2) {
+          state = AFTER_EQUALS;
+        } else if (!isSpace(c)) {
+          state = FAILED;
+        }
+        break;
+
+      case ATTR_NAME:
+        if (c == '=') {
+          state = AFTER_EQUALS;
+        } else if (isSpace(c)) {
+          state = AFTER_ATTR_NAME;
+        } else if (!isWord(c)) {
+          state = FAILED;
+        }
+        break;
+
+      case AFTER_ATTR_NAME:
+        if (c == '=') {
+          state = AFTER_EQUALS;
+        } else if (!isSpace(c)) {
+          state = FAILED;
+        }
+        break;
+
+      case AFTER_EQUALS:
+        if (isQuote(c)) {
+          state = ATTR_VALUE;
+          previousWasQuote = false;
+        } else if (!isSpace(c)) {
+          state = FAILED;
+        }
+        break;
+
+      case ATTR_VALUE:
+        if (c == '>' && previousWasQuote) {
+          state = OPENED;
+        }
+        previousWasQuote = isQuote(c);
+        break;
+
+      case OPENED:
+        acceptClosing(c);
+        break;
+
+      default:
+        break;
+    }
+  }
+
+  private void acceptClosing(char c) {
+    if (c == '<') {
+      closeState = CLOSE_LT;
+      return;
+    }
+
+    switch (closeState) {
+      case CLOSE_LT:
+        closeState = c == '/' ? CLOSE_SLASH : CLOSE_NONE;
+        break;
+      case CLOSE_SLASH:
+        closeState = isWord(c) ? CLOSE_NAME : CLOSE_NONE;
+        break;
+      case CLOSE_NAME:
+        if (c == '>') {
+          closeState = CLOSED;
+        } else if (!isWord(c)) {
+          closeState = CLOSE_NONE;
+        }
+        break;
+      default:
+        closeState = CLOSE_NONE;
+        break;
+    }
+  }
+
+  /** Matches {@code \w} without {@code UNICODE_CHARACTER_CLASS}. */
+  private static boolean isWord(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+  }
+
+  /** Matches {@code \s} without {@code UNICODE_CHARACTER_CLASS}. */
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  private static boolean isQuote(char c) {
+    return c == '\'' || c == '"';
+  }
+}
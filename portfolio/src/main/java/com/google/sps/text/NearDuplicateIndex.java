@@ -0,0 +1,281 @@
+package com.google.sps.text;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import com.google.sps.stats.Stats;
+
+/**
+ * Index of the comments recently posted to this instance, for spotting floods of slightly altered
+ * copies of the same text. Each text is reduced to a MinHash signature of its character shingles,
+ * and signatures are bucketed with locality-sensitive hashing, so that finding similar texts only
+ * compares a new text against the few that share a bucket with it.
+ *
+ * Texts are remembered for {@link #WINDOW_MS}, and at most {@link #CAPACITY} of them, so the index
+ * stays small however many comments are posted. Texts shorter than {@link #MIN_CHARS} are never
+ * indexed, since short replies like "thanks!" are legitimately repeated.
+ *
+ * A text is checked and indexed in one step, so that of several copies posted at the same time,
+ * only the first gets through.
+ */
+public class NearDuplicateIndex {
+  /**
+   * Texts whose estimated Jaccard similarity is at least this are near-duplicates. Changing a word
+   * or two in a sentence-long comment leaves it about 75% similar to the original.
+   */
+  private static final double THRESHOLD = 0.6;
+
+  /** The length of each shingle, in characters. */
+  private static final int SHINGLE_LENGTH = 5;
+
+  /** The number of MinHash values in each signature. */
+  private static final int HASHES = 64;
+
+  /**
+   * Signatures are split into bands of this many values, and texts share a bucket if any band is
+   * identical. With 16 bands of 4, texts which are 70% similar are found 99% of the time, texts
+   * which are 60% similar 89% of the time, and texts which are 30% similar are compared 12% of the
+   * time.
+   */
+  private static final int ROWS = 4;
+
+  /** Shorter texts, after normalization, are not checked. */
+  private static final int MIN_CHARS = 40;
+
+  /** Only the start of long texts is compared, which is plenty to tell them apart. */
+  private static final int MAX_CHARS = 5000;
+
+  static final long WINDOW_MS = 10 * 60 * 1000;
+  private static final int CAPACITY = 10000;
+
+  /** The seeds of the hash functions, one for each MinHash value. */
+  private static final long[] SEEDS = new long[HASHES];
+
+  static {
+    long seed = 0x9e3779b97f4a7c15L;
+    for (int i = 0; i < HASHES; i++) {
+      seed = mix(seed + 0x9e3779b97f4a7c15L);
+      SEEDS[i] = seed;
+    }
+  }
+
+  private static final NearDuplicateIndex instance =
+      new NearDuplicateIndex(System::currentTimeMillis);
+
+  static {
+    Stats.register("near_duplicate_index_size", instance::size);
+    Stats.register("near_duplicate_matches", instance::getMatches);
+  }
+
+  /** Indexed texts, oldest first. */
+  private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+  /** Indexed texts by the hash of each of their bands. */
+  private final Map<Long, List<Entry>> buckets = new HashMap<>();
+
+  private final LongSupplier clock;
+  private final AtomicLong matches = new AtomicLong();
+
+  /** The MinHash signature of a text. */
+  public static class Signature {
+    private final int[] values;
+
+    private Signature(int[] values) {
+      this.values = values;
+    }
+  }
+
+  private static class Entry {
+    final Signature signature;
+    final long addedAt;
+
+    Entry(Signature signature, long addedAt) {
+      this.signature = signature;
+      this.addedAt = addedAt;
+    }
+  }
+
+  /** @param clock The source of the current time, in milliseconds. */
+  NearDuplicateIndex(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /** The index shared by the comment servlets on this instance. */
+  public static NearDuplicateIndex getInstance() {
+    return instance;
+  }
+
+  /**
+   * Computes the signature of a text. Case, punctuation and runs of whitespace are ignored.
+   *
+   * @return The signature, or null if the text is too short to be checked.
+   */
+  public static Signature sign(String text) {
+    String normalized = normalize(text);
+    if (normalized.length() < MIN_CHARS) {
+      return null;
+    }
+
+    int[] values = new int[HASHES];
+    Arrays.fill(values, Integer.MAX_VALUE);
+
+    for (int start = 0; start + SHINGLE_LENGTH <= normalized.length(); start++) {
+      long shingle = 0xcbf29ce484222325L;
+      for (int i = start; i < start + SHINGLE_LENGTH; i++) {
+        shingle = (shingle ^ normalized.charAt(i)) * 0x100000001b3L;
+      }
+
+      for (int i = 0; i < HASHES; i++) {
+        int value = (int) (mix(shingle ^ SEEDS[i]) >>> 33);
+        if (value < values[i]) {
+          values[i] = value;
+        }
+      }
+    }
+
+    return new Signature(values);
+  }
+
+  /**
+   * Indexes a text, unless it is a near-duplicate of one indexed within the window.
+   *
+   * @param signature The text's signature, from {@link #sign}.
+   * @return Whether the text is a near-duplicate, in which case it was not indexed.
+   */
+  public synchronized boolean checkAndAdd(Signature signature) {
+    long now = clock.getAsLong();
+    expire(now);
+
+    if (containsSimilar(signature)) {
+      matches.incrementAndGet();
+      return true;
+    }
+
+    if (entries.size() >= CAPACITY) {
+      unindex(entries.removeFirst());
+    }
+
+    Entry entry = new Entry(signature, now);
+    entries.addLast(entry);
+    for (int band = 0; band < HASHES / ROWS; band++) {
+      buckets.computeIfAbsent(bandHash(signature, band), b -> new ArrayList<>(1)).add(entry);
+    }
+    return false;
+  }
+
+  /**
+   * Removes a text which was indexed by {@link #checkAndAdd}, such as one that could not be
+   * stored after all. Does nothing if the text has already expired.
+   */
+  public synchronized void remove(Signature signature) {
+    List<Entry> bucket = buckets.get(bandHash(signature, 0));
+    if (bucket == null) {
+      return;
+    }
+
+    for (Entry entry : bucket) {
+      if (entry.signature == signature) {
+        entries.remove(entry);
+        unindex(entry);
+        return;
+      }
+    }
+  }
+
+  /** The number of texts in the index. */
+  public synchronized long size() {
+    return entries.size();
+  }
+
+  /** The number of texts that were found to be near-duplicates. */
+  public long getMatches() {
+    return matches.get();
+  }
+
+  private boolean containsSimilar(Signature signature) {
+    for (int band = 0; band < HASHES / ROWS; band++) {
+      List<Entry> bucket = buckets.get(bandHash(signature, band));
+      if (bucket == null) {
+        continue;
+      }
+
+      for (Entry entry : bucket) {
+        if (similarity(signature, entry.signature) >= THRESHOLD) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private void expire(long now) {
+    while (!entries.isEmpty() && now - entries.peekFirst().addedAt >= WINDOW_MS) {
+      unindex(entries.removeFirst());
+    }
+  }
+
+  /** Removes an entry from the buckets; the caller removes it from {@link #entries}. */
+  private void unindex(Entry entry) {
+    for (int band = 0; band < HASHES / ROWS; band++) {
+      long hash = bandHash(entry.signature, band);
+      List<Entry> bucket = buckets.get(hash);
+      // entries are compared by identity, so this removes exactly the one being removed
+      bucket.remove(entry);
+      if (bucket.isEmpty()) {
+        buckets.remove(hash);
+      }
+    }
+  }
+
+  /** The fraction of values two signatures share, which estimates their texts' similarity. */
+  private static double similarity(Signature a, Signature b) {
+    int same = 0;
+    for (int i = 0; i < HASHES; i++) {
+      if (a.values[i] == b.values[i]) {
+        same++;
+      }
+    }
+    return (double) same / HASHES;
+  }
+
+  private static long bandHash(Signature signature, int band) {
+    long hash = band;
+    for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+      hash = mix(hash * 31 + signature.values[i]);
+    }
+    return hash;
+  }
+
+  /**
+   * Lowercases text, and replaces each run of characters other than letters and digits by a space.
+   */
+  private static String normalize(String text) {
+    StringBuilder normalized = new StringBuilder(Math.min(text.length(), MAX_CHARS));
+    boolean space = true;
+
+    for (int i = 0; i < text.length() && normalized.length() < MAX_CHARS; i++) {
+      char c = text.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        normalized.append(Character.toLowerCase(c));
+        space = false;
+      } else if (!space) {
+        normalized.append(' ');
+        space = true;
+      }
+    }
+
+    return normalized.toString().trim();
+  }
+
+  /** The finalizer of SplitMix64. */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
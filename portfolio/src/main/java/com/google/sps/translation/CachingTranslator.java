@@ -0,0 +1,231 @@
+package com.google.sps.translation;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * Translator that remembers previous translations, so that texts which are posted over and over
+ * (like "lol") are only sent to the underlying translator once. Translations are cached in memory
+ * with LRU eviction and, optionally, in Datastore so that they are shared between instances and
+ * survive restarts.
+ */
+public class CachingTranslator implements Translator {
+  /** Texts longer than this are unlikely to repeat, so they are not cached. */
+  private static final int MAX_CACHED_LENGTH = 5000;
+
+  private static final String KIND = "TranslationCache";
+
+  private final Translator inner;
+  private final String model;
+  private final DatastoreService datastore;
+  private final Map<String, Result> memory;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong persistentHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong savedChars = new AtomicLong();
+
+  /**
+   * @param inner The translator to call on a cache miss.
+   * @param model The name of the model used by {@code inner}. It is part of the cache key, so that
+   *     changing models does not return stale translations.
+   * @param capacity The maximum number of translations to keep in memory.
+   * @param datastore Where to persist translations, or null to only cache them in memory.
+   */
+  public CachingTranslator(Translator inner, String model, int capacity,
+      DatastoreService datastore) {
+    this.inner = inner;
+    this.model = model;
+    this.datastore = datastore;
+    this.memory = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  @Override
+  public List<Result> translate(List<String> texts, String targetLanguage) {
+    Result[] results = new Result[texts.size()];
+    String[] hashes = new String[texts.size()];
+    List<Integer> missing = new ArrayList<>();
+
+    for (int i = 0; i < texts.size(); i++) {
+      if (texts.get(i).length() <= MAX_CACHED_LENGTH) {
+        hashes[i] = hash(texts.get(i), targetLanguage);
+      }
+    }
+
+    synchronized (memory) {
+      for (int i = 0; i < texts.size(); i++) {
+        results[i] = hashes[i] == null ? null : memory.get(hashes[i]);
+
+        if (results[i] == null) {
+          missing.add(i);
+        } else {
+          hits.incrementAndGet();
+          savedChars.addAndGet(texts.get(i).length());
+        }
+      }
+    }
+
+    if (!missing.isEmpty() && datastore != null) {
+      missing = lookupPersistent(texts, hashes, results, missing);
+    }
+
+    if (missing.isEmpty()) {
+      return Arrays.asList(results);
+    }
+
+    // identical texts in the same batch are only sent once
+    List<String> uncached = new ArrayList<>(missing.size());
+    Map<String, Integer> queued = new HashMap<>();
+    int[] slots = new int[missing.size()];
+
+    for (int j = 0; j < missing.size(); j++) {
+      int i = missing.get(j);
+      Integer slot = hashes[i] == null ? null : queued.get(hashes[i]);
+
+      if (slot == null) {
+        slot = uncached.size();
+        uncached.add(texts.get(i));
+        if (hashes[i] != null) {
+          queued.put(hashes[i], slot);
+        }
+      } else {
+        savedChars.addAndGet(texts.get(i).length());
+      }
+
+      slots[j] = slot;
+    }
+
+    misses.addAndGet(uncached.size());
+    List<Result> translated = inner.translate(uncached, targetLanguage);
+    List<Entity> toPersist = new ArrayList<>();
+
+    synchronized (memory) {
+      for (int j = 0; j < missing.size(); j++) {
+        int i = missing.get(j);
+        results[i] = translated.get(slots[j]);
+
+        if (hashes[i] != null && memory.put(hashes[i], results[i]) == null) {
+          Entity entity = new Entity(KeyFactory.createKey(KIND, hashes[i]));
+          entity.setUnindexedProperty("translatedText", new Text(results[i].translatedText));
+          entity.setUnindexedProperty("sourceLanguage", results[i].sourceLanguage);
+          toPersist.add(entity);
+        }
+      }
+    }
+
+    if (datastore != null && !toPersist.isEmpty()) {
+      datastore.put(toPersist);
+    }
+
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Looks up texts which missed the memory cache in Datastore, with a single batch get.
+   *
+   * @return The indices of the texts which are still missing.
+   */
+  private List<Integer> lookupPersistent(List<String> texts, String[] hashes, Result[] results,
+      List<Integer> missing) {
+    List<Key> keys = new ArrayList<>(missing.size());
+    for (int i : missing) {
+      if (hashes[i] != null) {
+        keys.add(KeyFactory.createKey(KIND, hashes[i]));
+      }
+    }
+
+    if (keys.isEmpty()) {
+      return missing;
+    }
+
+    Map<Key, Entity> found = datastore.get(keys);
+    List<Integer> stillMissing = new ArrayList<>();
+
+    synchronized (memory) {
+      for (int i : missing) {
+        Entity entity = null;
+        if (hashes[i] != null) {
+          entity = found.get(KeyFactory.createKey(KIND, hashes[i]));
+        }
+
+        if (entity == null) {
+          stillMissing.add(i);
+          continue;
+        }
+
+        results[i] = new Result(((Text) entity.getProperty("translatedText")).getValue(),
+            (String) entity.getProperty("sourceLanguage"));
+        memory.put(hashes[i], results[i]);
+        persistentHits.incrementAndGet();
+        savedChars.addAndGet(texts.get(i).length());
+      }
+    }
+
+    return stillMissing;
+  }
+
+  /** The number of translations served from memory. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** The number of translations served from Datastore. */
+  public long getPersistentHits() {
+    return persistentHits.get();
+  }
+
+  /** The number of translations which had to be sent to the underlying translator. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** The number of characters which did not have to be sent to the underlying translator. */
+  public long getSavedChars() {
+    return savedChars.get();
+  }
+
+  public int size() {
+    synchronized (memory) {
+      return memory.size();
+    }
+  }
+
+  private String hash(String text, String targetLanguage) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    digest.update(targetLanguage.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    digest.update(model.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    digest.update(text.getBytes(StandardCharsets.UTF_8));
+
+    StringBuilder hex = new StringBuilder(64);
+    for (byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,25 @@
+package com.google.sps.translation;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.google.cloud.translate.Translate;
+import com.google.cloud.translate.Translate.TranslateOption;
+import com.google.cloud.translate.TranslateOptions;
+import com.google.cloud.translate.Translation;
+
+/** Translator backed by the Cloud Translate API. */
+public class CloudTranslator implements Translator {
+  private final Translate translate = TranslateOptions.getDefaultInstance().getService();
+
+  @Override
+  public List<Result> translate(List<String> texts, String targetLanguage) {
+    List<Translation> translations = translate.translate(texts,
+        TranslateOption.targetLanguage(targetLanguage), TranslateOption.model("nmt"));
+
+    List<Result> results = new ArrayList<>(translations.size());
+    for (Translation translation : translations) {
+      results.add(new Result(translation.getTranslatedText(), translation.getSourceLanguage()));
+    }
+    return results;
+  }
+}
@@ -0,0 +1,270 @@
+package com.google.sps.translation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.data.CommentBodies;
+import com.google.sps.data.VoteStore;
+import com.google.sps.stats.Stats;
+
+/**
+ * Translations of comments into the languages that viewers ask for. Each comment is translated
+ * into each language at most once: translations are kept in Datastore as
+ * {@code CommentTranslation} children of the comment, keyed by language, and short ones are also
+ * kept in memory with LRU eviction. Everything that is missing from both is translated with one
+ * batched call.
+ *
+ * A comment which is already in the requested language is stored as a marker without any text,
+ * rather than as a copy of its content, and its content is returned as the translation.
+ *
+ * Comments cannot be edited, so translations never go stale.
+ */
+public class CommentTranslations {
+  private static final String KIND = "CommentTranslation";
+
+  /** The most characters sent to the translator in one call. */
+  private static final int BATCH_CHARS = 100000;
+
+  /**
+   * Longer translations are only kept in Datastore, since comments can be up to 50000 bytes and
+   * a few of those would take up the memory that could hold many short ones.
+   */
+  private static final int MAX_CACHED_LENGTH = 5000;
+
+  /** What each translation in memory costs on top of its text, roughly its key and objects. */
+  private static final int ENTRY_OVERHEAD_CHARS = 64;
+
+  private static final Logger logger = Logger.getLogger(CommentTranslations.class.getName());
+
+  private static final CommentTranslations instance = new CommentTranslations(
+      Translators.getDefault(), DatastoreServiceFactory.getDatastoreService(), 4_000_000);
+
+  static {
+    Stats.register("comment_translation_hits", instance::getHits);
+    Stats.register("comment_translation_persistent_hits", instance::getPersistentHits);
+    Stats.register("comment_translation_misses", instance::getMisses);
+  }
+
+  private final Translator translator;
+  private final DatastoreService datastore;
+  /** Translations by comment and language, with no text if the comment is in that language. */
+  private final Map<String, Translator.Result> memory = new LinkedHashMap<>(16, 0.75f, true);
+  private final long capacity;
+  /** The total size of the translations in memory, in characters. */
+  private long memoryChars;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong persistentHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param translator The translator to call for translations that are not cached.
+   * @param capacity The maximum number of characters of translations to keep in memory.
+   */
+  public CommentTranslations(Translator translator, DatastoreService datastore, long capacity) {
+    this.translator = translator;
+    this.datastore = datastore;
+    this.capacity = capacity;
+  }
+
+  /** The translations shared by the comment servlets on this instance. */
+  public static CommentTranslations getInstance() {
+    return instance;
+  }
+
+  /**
+   * Translates several comments into a language. If the translator fails, the exception
+   * propagates, and the translations that were already cached are not returned either.
+   *
+   * @param contents The content of each comment, keyed by comment ID.
+   * @param language The code of the language to translate into.
+   * @return The translation of each comment, keyed by comment ID.
+   */
+  public Map<Long, Translator.Result> translate(Map<Long, String> contents, String language) {
+    Map<Long, Translator.Result> results = new HashMap<>();
+    List<Long> missing = new ArrayList<>();
+
+    synchronized (memory) {
+      for (long commentId : contents.keySet()) {
+        Translator.Result result = memory.get(memoryKey(commentId, language));
+        if (result == null) {
+          missing.add(commentId);
+        } else {
+          results.put(commentId, withContent(result, contents.get(commentId)));
+        }
+      }
+    }
+
+    hits.addAndGet(contents.size() - missing.size());
+
+    if (!missing.isEmpty()) {
+      missing = lookupPersistent(contents, missing, language, results);
+    }
+
+    if (!missing.isEmpty()) {
+      translateMissing(contents, missing, language, results);
+    }
+
+    return results;
+  }
+
+  /**
+   * Looks up translations which missed the memory cache in Datastore, with a single batch get.
+   *
+   * @return The IDs of the comments which are still missing.
+   */
+  private List<Long> lookupPersistent(Map<Long, String> contents, List<Long> missing,
+      String language, Map<Long, Translator.Result> results) {
+    List<Key> keys = new ArrayList<>(missing.size());
+    for (long commentId : missing) {
+      keys.add(key(commentId, language));
+    }
+
+    Map<Key, Entity> found = datastore.get(keys);
+    List<Long> stillMissing = new ArrayList<>();
+
+    synchronized (memory) {
+      for (int i = 0; i < missing.size(); i++) {
+        long commentId = missing.get(i);
+        Entity entity = found.get(keys.get(i));
+
+        if (entity == null) {
+          stillMissing.add(commentId);
+          continue;
+        }
+
+        Translator.Result result = new Translator.Result(CommentBodies.get(entity, "text"),
+            (String) entity.getProperty("sourceLanguage"));
+        remember(memoryKey(commentId, language), result);
+        results.put(commentId, withContent(result, contents.get(commentId)));
+      }
+    }
+
+    persistentHits.addAndGet(missing.size() - stillMissing.size());
+    return stillMissing;
+  }
+
+  /** Translates the comments that are not cached anywhere, and caches the translations. */
+  private void translateMissing(Map<Long, String> contents, List<Long> missing, String language,
+      Map<Long, Translator.Result> results) {
+    misses.addAndGet(missing.size());
+    List<Entity> toPersist = new ArrayList<>(missing.size());
+
+    // one call covers a page unless its comments are very long
+    int start = 0;
+    while (start < missing.size()) {
+      List<String> texts = new ArrayList<>();
+      int chars = 0;
+      int end = start;
+
+      while (end < missing.size()
+          && (texts.isEmpty() || chars + contents.get(missing.get(end)).length() <= BATCH_CHARS)) {
+        String text = contents.get(missing.get(end));
+        texts.add(text);
+        chars += text.length();
+        end++;
+      }
+
+      List<Translator.Result> translated = translator.translate(texts, language);
+
+      synchronized (memory) {
+        for (int i = start; i < end; i++) {
+          long commentId = missing.get(i);
+          Translator.Result result = translated.get(i - start);
+          results.put(commentId, result);
+
+          Entity entity = new Entity(key(commentId, language));
+          entity.setUnindexedProperty("sourceLanguage", result.sourceLanguage);
+
+          if (language.equals(result.sourceLanguage)) {
+            // the text is the comment's own content, which there is no need to keep another copy of
+            remember(memoryKey(commentId, language),
+                new Translator.Result(null, result.sourceLanguage));
+          } else {
+            remember(memoryKey(commentId, language), result);
+            CommentBodies.set(entity, "text", result.translatedText);
+          }
+          toPersist.add(entity);
+        }
+      }
+
+      start = end;
+    }
+
+    try {
+      datastore.put(toPersist);
+    } catch (RuntimeException e) {
+      // the page still gets its translations, and they are translated again when next asked for
+      logger.log(Level.WARNING, "Failed to store " + toPersist.size() + " translations", e);
+    }
+  }
+
+  /**
+   * Keeps a translation in memory, unless it is too long, and evicts the least recently used ones
+   * until the memory is within capacity. Must be called while synchronized on {@link #memory}.
+   */
+  private void remember(String key, Translator.Result result) {
+    if (result.translatedText != null && result.translatedText.length() > MAX_CACHED_LENGTH) {
+      return;
+    }
+
+    Translator.Result previous = memory.put(key, result);
+    if (previous != null) {
+      memoryChars -= size(previous);
+    }
+    memoryChars += size(result);
+
+    Iterator<Translator.Result> eldest = memory.values().iterator();
+    while (memoryChars > capacity && eldest.hasNext()) {
+      memoryChars -= size(eldest.next());
+      eldest.remove();
+    }
+  }
+
+  private static long size(Translator.Result result) {
+    int length = result.translatedText == null ? 0 : result.translatedText.length();
+    return ENTRY_OVERHEAD_CHARS + length;
+  }
+
+  /** The number of translations served from memory. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** The number of translations served from Datastore. */
+  public long getPersistentHits() {
+    return persistentHits.get();
+  }
+
+  /** The number of translations which had to be sent to the translator. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Fills in the text of a cached marker for a comment that is already in the language. */
+  private static Translator.Result withContent(Translator.Result cached, String content) {
+    if (cached.translatedText != null) {
+      return cached;
+    }
+    return new Translator.Result(content, cached.sourceLanguage);
+  }
+
+  private static Key key(long commentId, String language) {
+    return KeyFactory.createKey(VoteStore.commentKey(commentId), KIND, language);
+  }
+
+  private static String memoryKey(long commentId, String language) {
+    return commentId + ":" + language;
+  }
+}
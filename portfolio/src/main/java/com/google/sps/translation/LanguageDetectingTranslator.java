@@ -0,0 +1,95 @@
+package com.google.sps.translation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Translator that identifies the language of each text locally with a {@link LanguageDetector},
+ * and only sends texts to the underlying translator when they might not already be in the target
+ * language. Texts which are confidently in the target language come back unchanged, with the
+ * target as their source language, as the underlying translator would have returned them.
+ *
+ * Detections are counted by outcome, so that it is possible to see how many calls are saved and
+ * whether the thresholds are too strict.
+ */
+public class LanguageDetectingTranslator implements Translator {
+  private final Translator inner;
+  private final LanguageDetector detector;
+  private final double minConfidence;
+  private final int minEvidence;
+
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong otherLanguage = new AtomicLong();
+  private final AtomicLong uncertain = new AtomicLong();
+  private final AtomicLong savedChars = new AtomicLong();
+
+  /**
+   * @param inner The translator to call for texts that need translating.
+   * @param minConfidence The probability, from 0 to 1, that a detection must have to be trusted.
+   * @param minEvidence The number of n-grams that a detection must be based on to be trusted, so
+   *     that a couple of words are never enough.
+   */
+  public LanguageDetectingTranslator(Translator inner, LanguageDetector detector,
+      double minConfidence, int minEvidence) {
+    this.inner = inner;
+    this.detector = detector;
+    this.minConfidence = minConfidence;
+    this.minEvidence = minEvidence;
+  }
+
+  @Override
+  public List<Result> translate(List<String> texts, String targetLanguage) {
+    List<Result> results = new ArrayList<>(texts.size());
+    List<String> remaining = new ArrayList<>();
+    List<Integer> remainingIndices = new ArrayList<>();
+
+    for (int i = 0; i < texts.size(); i++) {
+      String text = texts.get(i);
+      LanguageDetector.Detection detection = detector.detect(text);
+      boolean confident =
+          detection.confidence >= minConfidence && detection.evidence >= minEvidence;
+
+      if (confident && detection.language.equals(targetLanguage)) {
+        results.add(new Result(text, targetLanguage));
+        skipped.incrementAndGet();
+        savedChars.addAndGet(text.length());
+        continue;
+      }
+
+      (confident ? otherLanguage : uncertain).incrementAndGet();
+      results.add(null);
+      remaining.add(text);
+      remainingIndices.add(i);
+    }
+
+    if (!remaining.isEmpty()) {
+      List<Result> translated = inner.translate(remaining, targetLanguage);
+      for (int i = 0; i < remaining.size(); i++) {
+        results.set(remainingIndices.get(i), translated.get(i));
+      }
+    }
+
+    return results;
+  }
+
+  /** The number of texts that were confidently in the target language, and were not sent. */
+  public long getSkipped() {
+    return skipped.get();
+  }
+
+  /** The number of texts that were confidently in another language. */
+  public long getOtherLanguage() {
+    return otherLanguage.get();
+  }
+
+  /** The number of texts whose language could not be identified confidently. */
+  public long getUncertain() {
+    return uncertain.get();
+  }
+
+  /** The number of characters in texts that were not sent. */
+  public long getSavedChars() {
+    return savedChars.get();
+  }
+}
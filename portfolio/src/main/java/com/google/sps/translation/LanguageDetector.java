@@ -0,0 +1,211 @@
+package com.google.sps.translation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Identifies the language of text from its character n-grams, without calling any API. Each
+ * language in the model has a log-probability for its most frequent n-grams of one to three
+ * characters, and text is scored against every language as a naive Bayes classifier would.
+ *
+ * The model only covers languages written in the Latin alphabet. Text that is mostly written in
+ * other scripts is reported as {@link #UNDETERMINED} with full confidence, because it is certainly
+ * not in any of them.
+ */
+public class LanguageDetector {
+  /** The language reported for text that is mostly not in the Latin alphabet. */
+  public static final String UNDETERMINED = "und";
+
+  private static final String MODEL_RESOURCE = "langid-model.tsv.gz";
+
+  /** Only the start of long text is scored, which is plenty to tell languages apart. */
+  private static final int MAX_CHARS = 2000;
+
+  /**
+   * Naive Bayes treats every n-gram as independent evidence, which makes it overconfident on long
+   * text. Scores are averaged per n-gram and then weighted as if there were at most this many.
+   */
+  private static final int MAX_EVIDENCE = 24;
+
+  private static LanguageDetector instance;
+
+  private final String[] languages;
+  /** For each n-gram length, the log-probability of unlisted n-grams in each language. */
+  private final float[][] floors;
+  /** Log-probabilities of each n-gram in each language, or NaN where it is unlisted. */
+  private final Map<String, float[]> grams;
+
+  /** The result of identifying the language of some text. */
+  public static class Detection {
+    /** The most likely language, as an ISO 639-1 code, or {@link #UNDETERMINED}. */
+    public final String language;
+
+    /** The probability that the text is in {@link #language}, from 0 to 1. */
+    public final double confidence;
+
+    /** The number of n-grams the detection was based on. Short text gives less evidence. */
+    public final int evidence;
+
+    Detection(String language, double confidence, int evidence) {
+      this.language = language;
+      this.confidence = confidence;
+      this.evidence = evidence;
+    }
+  }
+
+  LanguageDetector(String[] languages, float[][] floors, Map<String, float[]> grams) {
+    this.languages = languages;
+    this.floors = floors;
+    this.grams = grams;
+  }
+
+  /** Returns the detector using the model bundled with the app, loading it the first time. */
+  public static synchronized LanguageDetector getDefault() {
+    if (instance == null) {
+      try (InputStream src = LanguageDetector.class.getResourceAsStream(MODEL_RESOURCE)) {
+        if (src == null) {
+          throw new IllegalStateException("language model " + MODEL_RESOURCE + " is missing");
+        }
+        instance = load(new GZIPInputStream(src));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return instance;
+  }
+
+  /** Reads a model in the format described at the top of the bundled model file. */
+  static LanguageDetector load(InputStream src) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(src, StandardCharsets.UTF_8));
+
+    List<String> languages = new ArrayList<>();
+    List<float[]> languageFloors = new ArrayList<>();
+    Map<String, List<float[]>> entries = new HashMap<>();
+    String line;
+
+    // n-grams are first collected as (language index, log-probability) pairs
+    while ((line = reader.readLine()) != null) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+
+      String[] fields = line.split("\t");
+      if (line.startsWith("@")) {
+        languages.add(fields[0].substring(1));
+        languageFloors.add(new float[] {
+            Float.parseFloat(fields[1]), Float.parseFloat(fields[2]), Float.parseFloat(fields[3])});
+      } else {
+        entries.computeIfAbsent(fields[0], g -> new ArrayList<>())
+            .add(new float[] {languages.size() - 1, Float.parseFloat(fields[1])});
+      }
+    }
+
+    float[][] floors = new float[3][languages.size()];
+    for (int i = 0; i < languages.size(); i++) {
+      for (int n = 0; n < 3; n++) {
+        floors[n][i] = languageFloors.get(i)[n];
+      }
+    }
+
+    Map<String, float[]> grams = new HashMap<>();
+    entries.forEach((gram, pairs) -> {
+      float[] logProbs = new float[languages.size()];
+      Arrays.fill(logProbs, Float.NaN);
+      for (float[] pair : pairs) {
+        logProbs[(int) pair[0]] = pair[1];
+      }
+      grams.put(gram, logProbs);
+    });
+
+    return new LanguageDetector(languages.toArray(new String[0]), floors, grams);
+  }
+
+  /** Identifies the language of some text. */
+  public Detection detect(String text) {
+    double[] scores = new double[languages.length];
+    int evidence = 0;
+    int latinLetters = 0;
+    int otherLetters = 0;
+
+    StringBuilder word = new StringBuilder(" ");
+    int end = Math.min(text.length(), MAX_CHARS);
+
+    for (int i = 0; i <= end; i++) {
+      char c = i < end ? Character.toLowerCase(text.charAt(i)) : ' ';
+
+      if (Character.isLetter(c)) {
+        if (Character.UnicodeScript.of(c) == Character.UnicodeScript.LATIN) {
+          latinLetters++;
+          word.append(c);
+        } else {
+          otherLetters++;
+        }
+      } else if (word.length() > 1) {
+        word.append(' ');
+        evidence += score(word, scores);
+        word.setLength(1);
+      }
+    }
+
+    if (otherLetters > latinLetters) {
+      return new Detection(UNDETERMINED, 1, otherLetters);
+    }
+    if (evidence == 0) {
+      return new Detection(UNDETERMINED, 0, 0);
+    }
+
+    // the posterior of each language, from the weighted average log-likelihoods
+    double weight = (double) Math.min(evidence, MAX_EVIDENCE) / evidence;
+    int best = 0;
+    for (int i = 1; i < scores.length; i++) {
+      if (scores[i] > scores[best]) {
+        best = i;
+      }
+    }
+
+    double total = 0;
+    for (double score : scores) {
+      total += Math.exp((score - scores[best]) * weight);
+    }
+
+    return new Detection(languages[best], 1 / total, evidence);
+  }
+
+  /**
+   * Adds the log-probabilities of the n-grams in a word to each language's score.
+   *
+   * @param word The word, with a space before and after it.
+   * @return The number of n-grams scored.
+   */
+  private int score(CharSequence word, double[] scores) {
+    int count = 0;
+
+    for (int n = 1; n <= 3; n++) {
+      for (int start = 0; start + n <= word.length(); start++) {
+        if (n == 1 && word.charAt(start) == ' ') {
+          continue;
+        }
+
+        float[] logProbs = grams.get(word.subSequence(start, start + n).toString());
+        float[] floor = floors[n - 1];
+        for (int i = 0; i < scores.length; i++) {
+          float logProb = logProbs == null ? Float.NaN : logProbs[i];
+          scores[i] += Float.isNaN(logProb) ? floor[i] : logProb;
+        }
+        count++;
+      }
+    }
+
+    return count;
+  }
+}
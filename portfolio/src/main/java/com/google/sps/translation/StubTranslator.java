@@ -0,0 +1,19 @@
+package com.google.sps.translation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translator that does not make any network calls, for use in the development server. It claims
+ * that every text is Spanish, so that the translation UI can be exercised.
+ */
+public class StubTranslator implements Translator {
+  @Override
+  public List<Result> translate(List<String> texts, String targetLanguage) {
+    List<Result> results = new ArrayList<>(texts.size());
+    for (int i = 0; i < texts.size(); i++) {
+      results.add(new Result("translated content", "es"));
+    }
+    return results;
+  }
+}
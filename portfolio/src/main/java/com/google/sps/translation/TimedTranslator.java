@@ -0,0 +1,40 @@
+package com.google.sps.translation;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import com.google.sps.stats.Histogram;
+import com.google.sps.stats.Metrics;
+
+/** Wraps a translator, recording how long its calls take and how many of them fail. */
+public class TimedTranslator implements Translator {
+  private final Translator inner;
+  private final Histogram durations = Metrics.histogram("translate_call_duration_seconds");
+  private final LongAdder failures = Metrics.counter("translate_call_failures_total");
+  private final LongAdder chars = Metrics.counter("translate_chars_total");
+
+  public TimedTranslator(Translator inner) {
+    this.inner = inner;
+  }
+
+  @Override
+  public List<Result> translate(List<String> texts, String targetLanguage) {
+    long start = System.nanoTime();
+    boolean succeeded = false;
+
+    try {
+      List<Result> results = inner.translate(texts, targetLanguage);
+      succeeded = true;
+      return results;
+    } finally {
+      durations.recordSince(start);
+
+      if (succeeded) {
+        for (String text : texts) {
+          chars.add(text.length());
+        }
+      } else {
+        failures.increment();
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.google.sps.translation;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+/**
+ * Schedules background translation of comments. Comments waiting to be translated are marked with
+ * an indexed {@code translationPending} property; the task scheduled here translates all of them
+ * in batches.
+ */
+public class TranslationQueue {
+  public static final String WORKER_URL = "/api/tasks/translate";
+
+  /**
+   * Comments posted within the same window share one task, which runs at the end of the window.
+   */
+  private static final long BATCH_WINDOW_MS = 2000;
+
+  private static Queue queue = QueueFactory.getDefaultQueue();
+
+  private TranslationQueue() {}
+
+  /** Makes sure a translation task will run soon. */
+  public static void schedule() {
+    long window = System.currentTimeMillis() / BATCH_WINDOW_MS;
+
+    try {
+      // named tasks are deduplicated by the task queue, so this only adds one task per window
+      queue.add(TaskOptions.Builder.withUrl(WORKER_URL)
+          .taskName("translate-" + window)
+          .countdownMillis(BATCH_WINDOW_MS));
+    } catch (TaskAlreadyExistsException e) {
+      // another comment in this window already scheduled the task
+    }
+  }
+
+  /** Schedules a follow-up task immediately, for when a task could not finish all of its work. */
+  public static void scheduleNow() {
+    queue.add(TaskOptions.Builder.withUrl(WORKER_URL));
+  }
+}
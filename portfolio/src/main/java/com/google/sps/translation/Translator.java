@@ -0,0 +1,26 @@
+package com.google.sps.translation;
+
+import java.util.List;
+
+/** Translates text between languages. */
+public interface Translator {
+  /** The result of translating one piece of text. */
+  public static class Result {
+    public final String translatedText;
+    public final String sourceLanguage;
+
+    public Result(String translatedText, String sourceLanguage) {
+      this.translatedText = translatedText;
+      this.sourceLanguage = sourceLanguage;
+    }
+  }
+
+  /**
+   * Translates several texts in one call.
+   *
+   * @param texts The texts to translate.
+   * @param targetLanguage The language code to translate the texts into.
+   * @return The results, in the same order as {@code texts}.
+   */
+  List<Result> translate(List<String> texts, String targetLanguage);
+}
@@ -0,0 +1,57 @@
+package com.google.sps.translation;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.utils.SystemProperty;
+import com.google.sps.stats.Stats;
+
+/** Provides the translator used by the application. */
+public class Translators {
+  private static final int CACHE_CAPACITY = 10000;
+
+  /**
+   * How sure language detection must be that a text is already in the target language before it
+   * is not sent for translation. Mistakes leave a comment untranslated, so these are strict.
+   */
+  private static final double MIN_DETECTION_CONFIDENCE = 0.95;
+  private static final int MIN_DETECTION_EVIDENCE = 40;
+
+  private static Translator instance;
+
+  private Translators() {}
+
+  /**
+   * Returns the translator for the current environment: Cloud Translate in production, and a stub
+   * in the development server so that it works without credentials or network access. Either one
+   * is timed, and wrapped in a cache that is shared by everything which translates text. Texts
+   * that local language detection finds are already in the target language skip both.
+   */
+  public static synchronized Translator getDefault() {
+    if (instance == null) {
+      Translator inner;
+      if (SystemProperty.environment.value() == SystemProperty.Environment.Value.Production) {
+        inner = new CloudTranslator();
+      } else {
+        inner = new StubTranslator();
+      }
+
+      // time calls below the cache, so that only calls which reach the API are recorded
+      CachingTranslator cache = new CachingTranslator(new TimedTranslator(inner), "nmt",
+          CACHE_CAPACITY, DatastoreServiceFactory.getDatastoreService());
+      Stats.register("translation_cache_hits", cache::getHits);
+      Stats.register("translation_cache_persistent_hits", cache::getPersistentHits);
+      Stats.register("translation_cache_misses", cache::getMisses);
+      Stats.register("translation_cache_saved_chars", cache::getSavedChars);
+      Stats.register("translation_cache_size", cache::size);
+
+      LanguageDetectingTranslator detecting = new LanguageDetectingTranslator(cache,
+          LanguageDetector.getDefault(), MIN_DETECTION_CONFIDENCE, MIN_DETECTION_EVIDENCE);
+      Stats.register("language_detection_skipped", detecting::getSkipped);
+      Stats.register("language_detection_other_language", detecting::getOtherLanguage);
+      Stats.register("language_detection_uncertain", detecting::getUncertain);
+      Stats.register("language_detection_saved_chars", detecting::getSavedChars);
+
+      instance = detecting;
+    }
+    return instance;
+  }
+}
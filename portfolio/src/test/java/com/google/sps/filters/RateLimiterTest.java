@@ -0,0 +1,142 @@
+package com.google.sps.filters;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks {@link RateLimiter} against a clock which only moves when told to. */
+@RunWith(JUnit4.class)
+public final class RateLimiterTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  // an arbitrary start, far from zero, since System.nanoTime() can be anything
+  private final AtomicLong clock = new AtomicLong(123456789 * SECOND);
+
+  @Test
+  public void allowsBurstThenRejects() {
+    RateLimiter limiter = new RateLimiter(5, 1, clock::get);
+
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals("request " + i, 0, limiter.tryAcquire("a"));
+    }
+    Assert.assertEquals(SECOND, limiter.tryAcquire("a"));
+    Assert.assertEquals(1, limiter.getRejections());
+  }
+
+  @Test
+  public void reportsTimeUntilNextToken() {
+    RateLimiter limiter = new RateLimiter(1, 2, clock::get);
+
+    Assert.assertEquals(0, limiter.tryAcquire("a"));
+    clock.addAndGet(SECOND / 10);
+    Assert.assertEquals(SECOND / 2 - SECOND / 10, limiter.tryAcquire("a"));
+  }
+
+  @Test
+  public void refillsAtRate() {
+    RateLimiter limiter = new RateLimiter(2, 1, clock::get);
+    drain(limiter, "a");
+
+    clock.addAndGet(SECOND - 1);
+    Assert.assertNotEquals(0, limiter.tryAcquire("a"));
+
+    clock.addAndGet(1);
+    Assert.assertEquals(0, limiter.tryAcquire("a"));
+    Assert.assertNotEquals(0, limiter.tryAcquire("a"));
+  }
+
+  @Test
+  public void refillsNoMoreThanBurst() {
+    RateLimiter limiter = new RateLimiter(3, 1, clock::get);
+    drain(limiter, "a");
+
+    clock.addAndGet(1000 * SECOND);
+    Assert.assertEquals(3, drain(limiter, "a"));
+  }
+
+  @Test
+  public void keysHaveSeparateBuckets() {
+    RateLimiter limiter = new RateLimiter(2, 1, clock::get);
+    drain(limiter, "a");
+
+    Assert.assertEquals(2, drain(limiter, "b"));
+    Assert.assertEquals(2, limiter.size());
+  }
+
+  @Test
+  public void sweepRemovesOnlyFullBuckets() {
+    RateLimiter limiter = new RateLimiter(2, 1, clock::get);
+    limiter.tryAcquire("a");
+    clock.addAndGet(SECOND);
+    limiter.tryAcquire("b");
+
+    // "a" has refilled, but "b" is still missing a token
+    limiter.sweep(clock.get());
+    Assert.assertEquals(1, limiter.size());
+    Assert.assertEquals(1, drain(limiter, "b"));
+    Assert.assertEquals(2, drain(limiter, "a"));
+  }
+
+  @Test
+  public void sweepsEveryFewCalls() {
+    RateLimiter limiter = new RateLimiter(1, 1, clock::get);
+    for (int i = 0; i < 1000; i++) {
+      limiter.tryAcquire("key" + i);
+    }
+
+    clock.addAndGet(SECOND);
+    for (int i = 0; i < 100; i++) {
+      limiter.tryAcquire("other");
+    }
+    Assert.assertEquals(1, limiter.size());
+  }
+
+  @Test
+  public void sweepRacingAcquireNeverGrantsExtraTokens() throws Exception {
+    CyclicBarrier barrier = new CyclicBarrier(2);
+
+    for (int round = 0; round < 2000; round++) {
+      RateLimiter limiter = new RateLimiter(1, 1, clock::get);
+      AtomicLong granted = new AtomicLong();
+
+      Thread acquirer = new Thread(() -> {
+        await(barrier);
+        if (limiter.tryAcquire("a") == 0) {
+          granted.incrementAndGet();
+        }
+      });
+      acquirer.start();
+
+      // the bucket is full until the other thread takes its token, so the sweep may remove it
+      await(barrier);
+      limiter.sweep(clock.get());
+      acquirer.join();
+
+      if (limiter.tryAcquire("a") == 0) {
+        granted.incrementAndGet();
+      }
+      Assert.assertEquals("round " + round, 1, granted.get());
+    }
+  }
+
+  /** Takes tokens until one is refused, and returns how many were taken. */
+  private static int drain(RateLimiter limiter, String key) {
+    int taken = 0;
+    while (limiter.tryAcquire(key) == 0) {
+      taken++;
+    }
+    return taken;
+  }
+
+  private static void await(CyclicBarrier barrier) {
+    try {
+      barrier.await();
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+}
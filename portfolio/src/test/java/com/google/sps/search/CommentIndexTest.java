@@ -0,0 +1,105 @@
+package com.google.sps.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks how {@link CommentIndex} matches and ranks a small, fixed set of comments. */
+@RunWith(JUnit4.class)
+public final class CommentIndexTest {
+  private CommentIndex index;
+
+  @Before
+  public void setUp() {
+    index = new CommentIndex();
+    index.add(1, "The cat sat on the mat.", null);
+    index.add(2, "A dog chased the cat around the garden, and the cat ran up a tree.", null);
+    index.add(3, "Dogs and cats: a guide to keeping both in one small flat.", null);
+    index.add(4, "I made sourdough bread this weekend. The crust was great!", null);
+    index.add(5, "Bread, bread, bread. Nothing but BREAD.", null);
+    index.add(6, "Lovely weather in the garden today.", null);
+  }
+
+  @Test
+  public void returnsNothingForUnknownTerms() {
+    CommentIndex.Results results = index.search("zebra", 0, 10);
+
+    Assert.assertEquals(Collections.emptyList(), results.commentIds);
+    Assert.assertEquals(0, results.total);
+  }
+
+  @Test
+  public void returnsNothingForEmptyQuery() {
+    Assert.assertEquals(0, index.search(" ?! ", 0, 10).total);
+  }
+
+  @Test
+  public void ranksShorterDocumentFirstAtSameFrequency() {
+    // both mention the garden once, but comment 6 is much shorter than comment 2
+    Assert.assertEquals(Arrays.asList(6L, 2L), index.search("garden", 0, 10).commentIds);
+  }
+
+  @Test
+  public void ranksHigherTermFrequencyFirst() {
+    Assert.assertEquals(Arrays.asList(5L, 4L), index.search("bread", 0, 10).commentIds);
+  }
+
+  @Test
+  public void ranksRareTermsAboveCommonOnes() {
+    // "cat" is in two comments and "mat" in one, so matching "mat" counts for more
+    Assert.assertEquals(Arrays.asList(1L, 2L), index.search("cat mat", 0, 10).commentIds);
+  }
+
+  @Test
+  public void matchesAnyTermAndIgnoresCaseAndPunctuation() {
+    CommentIndex.Results results = index.search("DOG, Bread!", 0, 10);
+
+    // "dogs" in comment 3 is a different term, since words are not stemmed
+    Assert.assertEquals(3, results.total);
+    Assert.assertEquals(3, results.commentIds.size());
+    Assert.assertTrue(results.commentIds.containsAll(Arrays.asList(2L, 4L, 5L)));
+  }
+
+  @Test
+  public void pagesThroughResults() {
+    CommentIndex.Results all = index.search("the", 0, 10);
+    CommentIndex.Results first = index.search("the", 0, 2);
+    CommentIndex.Results second = index.search("the", 2, 2);
+
+    Assert.assertEquals(4, all.total);
+    Assert.assertEquals(4, first.total);
+    Assert.assertEquals(all.commentIds.subList(0, 2), first.commentIds);
+    Assert.assertEquals(all.commentIds.subList(2, 4), second.commentIds);
+    Assert.assertEquals(Collections.emptyList(), index.search("the", 4, 2).commentIds);
+  }
+
+  @Test
+  public void replacesReindexedComments() {
+    index.add(1, "The mouse sat on the mat.", null);
+
+    Assert.assertEquals(Arrays.asList(2L), index.search("cat", 0, 10).commentIds);
+    Assert.assertEquals(Arrays.asList(1L), index.search("mouse", 0, 10).commentIds);
+    Assert.assertEquals(6, index.size());
+  }
+
+  @Test
+  public void indexesTranslations() {
+    index.add(7, "Le chat est sur le tapis.", "The cat is on the rug.");
+
+    Assert.assertTrue(index.search("chat", 0, 10).commentIds.contains(7L));
+    Assert.assertTrue(index.search("rug", 0, 10).commentIds.contains(7L));
+  }
+
+  @Test
+  public void skipsVeryLongTokens() {
+    String junk = String.join("", Collections.nCopies(41, "x"));
+    index.add(7, "see " + junk, null);
+
+    Assert.assertEquals(0, index.search(junk, 0, 10).total);
+    Assert.assertEquals(Arrays.asList(7L), index.search("see", 0, 10).commentIds);
+  }
+}
@@ -0,0 +1,98 @@
+package com.google.sps.search;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that {@link PostingList} reads back exactly what was added to it. */
+@RunWith(JUnit4.class)
+public final class PostingListTest {
+  @Test
+  public void emptyListHasNoEntries() {
+    PostingList list = new PostingList();
+
+    Assert.assertEquals(0, list.getDocFrequency());
+    Assert.assertFalse(list.cursor().next());
+  }
+
+  @Test
+  public void roundTripsSmallGaps() {
+    int[] docs = {0, 1, 2, 5, 9, 127, 128, 129};
+    int[] frequencies = {1, 2, 1, 127, 128, 1, 300, 1};
+
+    assertRoundTrip(docs, frequencies);
+  }
+
+  @Test
+  public void roundTripsLargeGaps() {
+    // gaps which need every length of varint, up to the largest document number
+    int[] docs = {
+        16383, 16384, 16384 + (1 << 21), 16384 + (1 << 21) + (1 << 28), Integer.MAX_VALUE - 1,
+        Integer.MAX_VALUE};
+    int[] frequencies = {1, Integer.MAX_VALUE, 3, 1 << 21, 1, 1 << 28};
+
+    assertRoundTrip(docs, frequencies);
+  }
+
+  @Test
+  public void roundTripsLargestFirstDocument() {
+    assertRoundTrip(new int[] {Integer.MAX_VALUE}, new int[] {7});
+  }
+
+  @Test
+  public void roundTripsRandomLists() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 100; round++) {
+      int count = 1 + random.nextInt(2000);
+      int[] docs = new int[count];
+      int[] frequencies = new int[count];
+
+      int doc = -1;
+      for (int i = 0; i < count; i++) {
+        // mostly small gaps, as in a real index, with the occasional huge one
+        int gap = random.nextInt(10) == 0 ? random.nextInt(1 << 20) : random.nextInt(4);
+        doc += 1 + gap;
+        docs[i] = doc;
+        frequencies[i] = 1 + (random.nextInt(20) == 0 ? random.nextInt(1000) : random.nextInt(3));
+      }
+
+      assertRoundTrip(docs, frequencies);
+    }
+  }
+
+  @Test
+  public void cursorsAreIndependent() {
+    PostingList list = new PostingList();
+    list.add(3, 1);
+    list.add(10, 2);
+
+    PostingList.Cursor first = list.cursor();
+    Assert.assertTrue(first.next());
+    Assert.assertTrue(first.next());
+
+    PostingList.Cursor second = list.cursor();
+    Assert.assertTrue(second.next());
+    Assert.assertEquals(3, second.doc());
+    Assert.assertEquals(10, first.doc());
+  }
+
+  private static void assertRoundTrip(int[] docs, int[] frequencies) {
+    PostingList list = new PostingList();
+    for (int i = 0; i < docs.length; i++) {
+      list.add(docs[i], frequencies[i]);
+    }
+
+    Assert.assertEquals(docs.length, list.getDocFrequency());
+
+    PostingList.Cursor cursor = list.cursor();
+    for (int i = 0; i < docs.length; i++) {
+      Assert.assertTrue("entry " + i, cursor.next());
+      Assert.assertEquals("doc of entry " + i, docs[i], cursor.doc());
+      Assert.assertEquals("frequency of entry " + i, frequencies[i], cursor.termFrequency());
+    }
+    Assert.assertFalse(cursor.next());
+  }
+}
@@ -0,0 +1,167 @@
+package com.google.sps.text;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks {@link HtmlDetector} against the regex it replaced. */
+@RunWith(JUnit4.class)
+public final class HtmlDetectorTest {
+  private static final Pattern REGEX =
+      Pattern.compile("<\\w+(\\s*\\w+\\s*(=\\s*['\"].*['\"]))*>.*<\\/\\w+>", Pattern.DOTALL);
+
+  private static final List<String> CORPUS = Arrays.asList(
+      "",
+      "hello",
+      "<",
+      "<b>",
+      "<b>bold</b>",
+      "<b></b>",
+      "<b></i>",
+      "<b>bold</b> trailing",
+      " <b>leading space</b>",
+      "<b>bold</b",
+      "<b>bold</ b>",
+      "<b>bold</>",
+      "<>empty</b>",
+      "<_x1>word chars</y_2>",
+      "<a href=\"https://example.com\">link</a>",
+      "<a href='x'>single quotes</a>",
+      "<a href = \"x\" >spaces around equals</a>",
+      "<a href=\"x\" title=\"y\">two attributes</a>",
+      "<a href=\"x\"title=\"y\">no space between</a>",
+      "<a href>attribute without value</a>",
+      "<a href=x>unquoted value</a>",
+      "<a href=\"x>unterminated value</a>",
+      "<a href=\"x\">\"quote in body\"</a>",
+      "<a href=\"a\"b\">quote inside value</a>",
+      "<a href=\"x'>mixed quotes</a>",
+      "<div\n  class=\"x\"\n>multi\nline</div>",
+      "<p>nested <b>tags</b> here</p>",
+      "<p>ends with two closes</b></p>",
+      "<p>text</p><p>more</p>",
+      "<\u00e9>non-ascii tag name</\u00e9>",
+      "<b>non-ascii body \u00e9\u4e2d</b>",
+      "<b>tab\tin body</b>\t",
+      "<b\t>tab before close</b>",
+      "<script>alert('x')</script>",
+      "plain text with a <b>tag</b> in it",
+      "a < b and c > d",
+      "<b>unclosed",
+      "</b>closing first<b>");
+
+  private static final String ALPHABET = "<>/=\"' \n\tab_1\u00e9";
+
+  @Test
+  public void matchesRegexOnCorpus() {
+    for (String text : corpus()) {
+      Assert.assertEquals(describe(text), regex(text), HtmlDetector.matches(text));
+    }
+  }
+
+  @Test
+  public void matchesRegexWhenFedInChunks() {
+    HtmlDetector detector = new HtmlDetector();
+
+    for (String text : corpus()) {
+      char[] chars = text.toCharArray();
+
+      for (int chunk = 1; chunk <= 7; chunk++) {
+        detector.reset();
+
+        for (int off = 0; off < chars.length; off += chunk) {
+          int len = Math.min(chunk, chars.length - off);
+          detector.accept(chars, off, len);
+
+          // the detector's answer so far is the regex's answer for the prefix read so far
+          String prefix = text.substring(0, off + len);
+          Assert.assertEquals(describe(prefix) + " in chunks of " + chunk, regex(prefix),
+              detector.isHtml());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void matchesRegexWhenFedOneCharacterAtATime() {
+    HtmlDetector detector = new HtmlDetector();
+
+    for (String text : CORPUS) {
+      detector.reset();
+      for (int i = 0; i < text.length(); i++) {
+        detector.accept(text.charAt(i));
+      }
+      Assert.assertEquals(describe(text), regex(text), detector.isHtml());
+    }
+  }
+
+  @Test
+  public void acceptsSubsequences() {
+    HtmlDetector detector = new HtmlDetector();
+    String text = "xx<b>bold</b>yy";
+
+    detector.accept(text, 2, text.length() - 2);
+    Assert.assertTrue(detector.isHtml());
+  }
+
+  @Test
+  public void handlesManyAttributesInLinearTime() {
+    StringBuilder text = new StringBuilder("<a");
+    for (int i = 0; i < 20000; i++) {
+      text.append(" x=\"y");
+    }
+    text.append(">");
+
+    // the regex backtracks for a very long time on this, so it is not compared
+    Assert.assertFalse(HtmlDetector.matches(text));
+    Assert.assertTrue(HtmlDetector.matches(text.append("\"></a>")));
+  }
+
+  /** The fixed corpus, and mutations of it which are reproducible because the seed is fixed. */
+  private static List<String> corpus() {
+    List<String> corpus = new ArrayList<>(CORPUS);
+    Random random = new Random(42);
+
+    for (String text : CORPUS) {
+      for (int i = 0; i < 50; i++) {
+        StringBuilder mutated = new StringBuilder(text);
+        int edits = 1 + random.nextInt(3);
+
+        for (int edit = 0; edit < edits; edit++) {
+          int pos = mutated.length() == 0 ? 0 : random.nextInt(mutated.length());
+          char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+
+          switch (mutated.length() == 0 ? 0 : random.nextInt(3)) {
+            case 0:
+              mutated.insert(pos, c);
+              break;
+            case 1:
+              mutated.setCharAt(pos, c);
+              break;
+            default:
+              mutated.deleteCharAt(pos);
+              break;
+          }
+        }
+
+        corpus.add(mutated.toString());
+      }
+    }
+
+    return corpus;
+  }
+
+  private static boolean regex(String text) {
+    return REGEX.matcher(text).matches();
+  }
+
+  private static String describe(String text) {
+    return "\"" + text.replace("\n", "\\n").replace("\t", "\\t") + "\"";
+  }
+}
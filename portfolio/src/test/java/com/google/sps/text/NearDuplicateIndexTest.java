@@ -0,0 +1,125 @@
+package com.google.sps.text;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks {@link NearDuplicateIndex} against a clock which only moves when told to. */
+@RunWith(JUnit4.class)
+public final class NearDuplicateIndexTest {
+  private static final String ORIGINAL =
+      "Buy cheap watches at my store, the best prices on the whole internet, visit today!";
+
+  private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+  private final NearDuplicateIndex index = new NearDuplicateIndex(clock::get);
+
+  @Test
+  public void flagsExactCopies() {
+    Assert.assertFalse(index.checkAndAdd(NearDuplicateIndex.sign(ORIGINAL)));
+    Assert.assertTrue(index.checkAndAdd(NearDuplicateIndex.sign(ORIGINAL)));
+    Assert.assertEquals(1, index.getMatches());
+  }
+
+  @Test
+  public void flagsSlightlyAlteredCopies() {
+    index.checkAndAdd(NearDuplicateIndex.sign(ORIGINAL));
+
+    Assert.assertTrue(index.checkAndAdd(NearDuplicateIndex.sign(
+        "BUY CHEAP WATCHES at my store -- the best prices on the whole internet... visit today")));
+    Assert.assertTrue(index.checkAndAdd(NearDuplicateIndex.sign(
+        "Buy cheap watches at my shop, the best prices on the whole internet, visit today!")));
+  }
+
+  @Test
+  public void allowsTextsBelowThreshold() {
+    index.checkAndAdd(NearDuplicateIndex.sign(ORIGINAL));
+
+    // about half of the words are different
+    Assert.assertFalse(index.checkAndAdd(NearDuplicateIndex.sign(
+        "Buy nice shoes at our market, the lowest costs in the whole town, come by tomorrow!")));
+    Assert.assertFalse(index.checkAndAdd(NearDuplicateIndex.sign(
+        "I really enjoyed reading this post about building a portfolio site with App Engine.")));
+    Assert.assertEquals(3, index.size());
+  }
+
+  @Test
+  public void skipsShortTexts() {
+    Assert.assertNull(NearDuplicateIndex.sign("Thanks, great post!"));
+    // only letters and digits count towards the length
+    String exclaimed = "Thanks" + String.join("", Collections.nCopies(50, "!"));
+    Assert.assertNull(NearDuplicateIndex.sign(exclaimed));
+    Assert.assertNotNull(NearDuplicateIndex.sign(ORIGINAL));
+  }
+
+  @Test
+  public void forgetsTextsAfterWindow() {
+    index.checkAndAdd(NearDuplicateIndex.sign(ORIGINAL));
+
+    clock.addAndGet(NearDuplicateIndex.WINDOW_MS - 1);
+    Assert.assertTrue(index.checkAndAdd(NearDuplicateIndex.sign(ORIGINAL)));
+
+    clock.addAndGet(1);
+    Assert.assertFalse(index.checkAndAdd(NearDuplicateIndex.sign(ORIGINAL)));
+    Assert.assertEquals(1, index.size());
+  }
+
+  @Test
+  public void forgetsRemovedTexts() {
+    NearDuplicateIndex.Signature signature = NearDuplicateIndex.sign(ORIGINAL);
+    index.checkAndAdd(signature);
+    index.remove(signature);
+
+    Assert.assertEquals(0, index.size());
+    Assert.assertFalse(index.checkAndAdd(NearDuplicateIndex.sign(ORIGINAL)));
+  }
+
+  @Test
+  public void removeOnlyRemovesThatText() {
+    NearDuplicateIndex.Signature first = NearDuplicateIndex.sign(ORIGINAL);
+    index.checkAndAdd(first);
+
+    clock.addAndGet(NearDuplicateIndex.WINDOW_MS);
+    NearDuplicateIndex.Signature second = NearDuplicateIndex.sign(ORIGINAL);
+    index.checkAndAdd(second);
+
+    // the first has expired, so removing it again must not remove the second
+    index.remove(first);
+    Assert.assertTrue(index.checkAndAdd(NearDuplicateIndex.sign(ORIGINAL)));
+  }
+
+  @Test
+  public void letsOnlyOneOfConcurrentCopiesThrough() throws Exception {
+    int threads = 8;
+    CyclicBarrier barrier = new CyclicBarrier(threads);
+    AtomicInteger accepted = new AtomicInteger();
+    List<Thread> posters = new ArrayList<>();
+
+    for (int i = 0; i < threads; i++) {
+      Thread poster = new Thread(() -> {
+        NearDuplicateIndex.Signature signature = NearDuplicateIndex.sign(ORIGINAL);
+        try {
+          barrier.await();
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+        if (!index.checkAndAdd(signature)) {
+          accepted.incrementAndGet();
+        }
+      });
+      poster.start();
+      posters.add(poster);
+    }
+
+    for (Thread poster : posters) {
+      poster.join();
+    }
+    Assert.assertEquals(1, accepted.get());
+  }
+}